@@ -0,0 +1,217 @@
+package com.jamesma.purdue.maps.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.jamesma.purdue.maps.database.WordMatchQueries;
+import com.jamesma.purdue.maps.search.CampusLocation;
+
+/**
+ * The databases the benchmarks run against, named by the dataset parameter: "campus" for the
+ * shipped assets/purdue_locations.db, or a number of locations for a synthetic database of that
+ * size.
+ *
+ * A synthetic database has the schema of the shipped one and names made of the words of real
+ * names, as often as they occur there, so common words like "hall" stay broad and rare ones stay
+ * narrow as the table grows. It is generated from a fixed seed, so every build measures the same
+ * data, and kept next to the build output to be reused by the next run.
+ *
+ * The shipped database is looked for at ../assets/purdue_locations.db, relative to the benchmarks
+ * directory, unless -Dpurdue.maps.db says otherwise. Synthetic databases go to target/, or to
+ * -Dpurdue.maps.benchmarks.dir.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+final class Datasets {
+
+    static final String CAMPUS = "campus";
+
+    private static final String DATABASE_PROPERTY = "purdue.maps.db";
+    private static final String DEFAULT_DATABASE = "../assets/purdue_locations.db";
+    private static final String DIR_PROPERTY = "purdue.maps.benchmarks.dir";
+    private static final String DEFAULT_DIR = "target";
+
+    private static final long SEED = 0x5ca1ab1eL;
+    private static final int MIN_NAME_WORDS = 2;
+    private static final int MAX_NAME_WORDS = 4;
+    private static final double ABBREVIATED = 0.7;
+    private static final double ADDRESSED = 0.5;
+    private static final int BATCH_SIZE = 1000;
+
+    // The bounding box of campus, as DatasetCompiler checks it
+    private static final int MIN_LAT_E6 = 40405000;
+    private static final int MAX_LAT_E6 = 40475000;
+    private static final int MIN_LNG_E6 = -86950000;
+    private static final int MAX_LNG_E6 = -86900000;
+
+    private Datasets() {
+    }
+
+    /**
+     * @param dataset
+     *            "campus", or the number of locations of a synthetic database
+     * @return The database, generated first if it is synthetic and wasn't yet
+     */
+    static File getDatabase(String dataset) throws IOException, SQLException {
+        File campus = new File(System.getProperty(DATABASE_PROPERTY, DEFAULT_DATABASE));
+        if (!campus.isFile()) {
+            throw new IOException("No database at " + campus.getAbsolutePath() + ", set -D" + DATABASE_PROPERTY);
+        }
+        if (CAMPUS.equals(dataset)) {
+            return campus;
+        }
+
+        int size;
+        try {
+            size = Integer.parseInt(dataset);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown dataset: " + dataset);
+        }
+
+        File dir = new File(System.getProperty(DIR_PROPERTY, DEFAULT_DIR));
+        File synthetic = new File(dir, "synthetic-" + size + ".db");
+        if (!synthetic.isFile() || synthetic.lastModified() < campus.lastModified()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            generate(campus, size, synthetic);
+        }
+        return synthetic;
+    }
+
+    /**
+     * Write a database with the schema of the campus database and the given number of locations.
+     * The file only appears once complete.
+     */
+    private static void generate(File campus, int size, File out) throws IOException, SQLException {
+        List<String> schema = new ArrayList<String>();
+        List<String> indexes = new ArrayList<String>();
+        List<String> words = new ArrayList<String>();
+        List<String> addresses = new ArrayList<String>();
+        readCampus(campus, schema, indexes, words, addresses);
+
+        File tmp = new File(out.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("Unable to delete " + tmp);
+        }
+
+        System.out.printf("Generating %d locations into %s%n", size, out);
+        Random random = new Random(SEED);
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + tmp.getPath());
+        try {
+            Statement statement = db.createStatement();
+            for (String sql : schema) {
+                statement.execute(sql);
+            }
+
+            db.setAutoCommit(false);
+            PreparedStatement insertLocation = db.prepareStatement("INSERT INTO " + WordMatchQueries.TABLE_NAME
+                    + " (_id, name, abbr, lat_e6, lng_e6, addr, subtitle, search_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            PreparedStatement insertGram = db.prepareStatement("INSERT INTO " + WordMatchQueries.GRAM_TABLE_NAME
+                    + " (" + WordMatchQueries.GRAM + ", " + WordMatchQueries.GRAM_LOC_ID + ") VALUES (?, ?)");
+            for (int id = 1; id <= size; id++) {
+                int wordCount = MIN_NAME_WORDS + random.nextInt(MAX_NAME_WORDS - MIN_NAME_WORDS + 1);
+                StringBuilder name = new StringBuilder();
+                StringBuilder abbr = new StringBuilder();
+                for (int i = 0; i < wordCount; i++) {
+                    String word = words.get(random.nextInt(words.size()));
+                    name.append(i == 0 ? "" : " ").append(word);
+                    abbr.append(Character.toUpperCase(word.charAt(0)));
+                }
+                String abbreviation = random.nextDouble() < ABBREVIATED ? abbr.toString() : null;
+                String address = random.nextDouble() < ADDRESSED ? addresses.get(random.nextInt(addresses.size())) : null;
+                String searchKey = WordMatchQueries.getSearchKey(name.toString(), abbreviation);
+
+                insertLocation.setInt(1, id);
+                insertLocation.setString(2, name.toString());
+                insertLocation.setString(3, abbreviation);
+                insertLocation.setInt(4, MIN_LAT_E6 + random.nextInt(MAX_LAT_E6 - MIN_LAT_E6));
+                insertLocation.setInt(5, MIN_LNG_E6 + random.nextInt(MAX_LNG_E6 - MIN_LNG_E6));
+                insertLocation.setString(6, address);
+                insertLocation.setString(7, CampusLocation.getSubtitle(abbreviation, address));
+                insertLocation.setString(8, searchKey);
+                insertLocation.addBatch();
+
+                for (String gram : WordMatchQueries.getIndexGrams(searchKey)) {
+                    insertGram.setString(1, gram);
+                    insertGram.setInt(2, id);
+                    insertGram.addBatch();
+                }
+
+                if (id % BATCH_SIZE == 0 || id == size) {
+                    insertLocation.executeBatch();
+                    insertGram.executeBatch();
+                }
+            }
+            db.commit();
+            db.setAutoCommit(true);
+
+            for (String sql : indexes) {
+                statement.execute(sql);
+            }
+            statement.execute("ANALYZE");
+            statement.close();
+        } finally {
+            db.close();
+        }
+
+        if ((out.exists() && !out.delete()) || !tmp.renameTo(out)) {
+            throw new IOException("Unable to move " + tmp + " to " + out);
+        }
+    }
+
+    /**
+     * Read the schema of the campus database, tables and indexes apart so the indexes can be built
+     * after the rows are in, and the words and addresses its locations are made of.
+     */
+    private static void readCampus(File campus, List<String> schema, List<String> indexes, List<String> words,
+            List<String> addresses) throws SQLException {
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + campus.getPath());
+        try {
+            Statement statement = db.createStatement();
+            ResultSet rows = statement.executeQuery(
+                    "SELECT type, sql FROM sqlite_master WHERE sql NOT NULL AND name NOT LIKE 'sqlite_%' ORDER BY rowid");
+            while (rows.next()) {
+                if ("index".equals(rows.getString(1))) {
+                    indexes.add(rows.getString(2));
+                } else {
+                    schema.add(rows.getString(2));
+                }
+            }
+            rows.close();
+
+            rows = statement.executeQuery("SELECT name, addr FROM " + WordMatchQueries.TABLE_NAME);
+            while (rows.next()) {
+                for (String word : rows.getString(1).split(" ")) {
+                    // Keep the words a user would type, not the odd "&" or "-"
+                    if (Character.isLetterOrDigit(word.charAt(0))) {
+                        words.add(word);
+                    }
+                }
+                if (rows.getString(2) != null) {
+                    addresses.add(rows.getString(2));
+                }
+            }
+            rows.close();
+            statement.close();
+        } finally {
+            db.close();
+        }
+
+        if (words.isEmpty() || addresses.isEmpty()) {
+            throw new SQLException("No locations in " + campus + " to take names from");
+        }
+        System.out.printf("%d words and %d addresses from %s%n", words.size(), addresses.size(), campus);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.jamesma.purdue.maps.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.jamesma.purdue.maps.database.WordMatchQueries;
+import com.jamesma.purdue.maps.database.WordMatchSource;
+import com.jamesma.purdue.maps.database.WordMatcher;
+import com.jamesma.purdue.maps.search.CampusLocation;
+import com.jamesma.purdue.maps.search.QueryCache;
+
+/**
+ * The search behind DatabaseHelper.getWordMatches on a desktop JVM: the same {@link WordMatcher}
+ * over a SQLite JDBC connection instead of the Android one. Only reading the best matches by id
+ * is done here, where DatabaseHelper wraps them in a Cursor.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class JdbcLocationSearch implements Closeable {
+
+    // As DatabaseHelper
+    static final String ID = "_id";
+    static final String SEARCH_KEY = "search_key";
+    static final String[] LOCATION_COLUMNS = { ID, "name", "abbr", "lat_e6", "lng_e6", "addr", "subtitle" };
+    private static final String[] CANDIDATE_COLUMNS = { ID, SEARCH_KEY, "lat_e6", "lng_e6" };
+
+    private final JdbcWordMatchSource source;
+    private final WordMatchQueries wordMatchQueries = new WordMatchQueries(ID, SEARCH_KEY);
+    private final WordMatcher wordMatcher;
+
+    /**
+     * @param database
+     *            A database laid out as assets/purdue_locations.db, opened read-only
+     */
+    public JdbcLocationSearch(File database) throws SQLException {
+        source = new JdbcWordMatchSource(database);
+        wordMatcher = new WordMatcher(source, wordMatchQueries, CANDIDATE_COLUMNS);
+    }
+
+    /**
+     * Returns the best ranked locations that match the given query, as
+     * DatabaseHelper.getWordMatches does before wrapping them in a Cursor.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of locations to return
+     * @return The best matches best first, empty if none found
+     */
+    public List<CampusLocation> getWordMatches(String query, int maxResults) {
+        return readLocations(wordMatcher.getBestMatches(query, maxResults));
+    }
+
+    /**
+     * Forget the cached queries, so the next query goes to the database.
+     */
+    public void clearCache() {
+        wordMatcher.clearCache();
+    }
+
+    public QueryCache getQueryCache() {
+        return wordMatcher.getQueryCache();
+    }
+
+    /**
+     * Reads the ranked locations by id, in one query as DatabaseHelper does for suggestions.
+     */
+    private List<CampusLocation> readLocations(int[] ids) {
+        if (ids.length == 0) {
+            return Collections.emptyList();
+        }
+
+        int[] sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+        String[] selectionArgs = new String[sortedIds.length];
+        for (int i = 0; i < sortedIds.length; i++) {
+            selectionArgs[i] = Integer.toString(sortedIds[i]);
+        }
+
+        CampusLocation[] locations = new CampusLocation[ids.length];
+        WordMatchSource.Rows rows = source.query(
+                wordMatchQueries.getLocationsSql(LOCATION_COLUMNS, ids.length), selectionArgs);
+        try {
+            while (rows.moveToNext()) {
+                CampusLocation location = new CampusLocation(
+                        rows.getInt(0),
+                        rows.getString(1),
+                        rows.getString(2),
+                        rows.getInt(3),
+                        rows.getInt(4),
+                        rows.getString(5),
+                        rows.getString(6));
+                locations[Arrays.binarySearch(sortedIds, location.getId())] = location;
+            }
+        } finally {
+            rows.close();
+        }
+
+        // Back in ranked order
+        List<CampusLocation> ranked = new ArrayList<CampusLocation>(ids.length);
+        for (int id : ids) {
+            ranked.add(locations[Arrays.binarySearch(sortedIds, id)]);
+        }
+        return ranked;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+}
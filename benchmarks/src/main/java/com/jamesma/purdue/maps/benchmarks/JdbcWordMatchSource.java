@@ -0,0 +1,115 @@
+package com.jamesma.purdue.maps.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sqlite.SQLiteConfig;
+
+import com.jamesma.purdue.maps.database.WordMatchSource;
+
+/**
+ * Runs word match queries over a SQLite JDBC connection. Statements are compiled once per SQL text
+ * and reused, as the Android connection's statement cache does.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class JdbcWordMatchSource implements WordMatchSource, Closeable {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    /**
+     * @param database
+     *            A database laid out as assets/purdue_locations.db, opened read-only
+     */
+    public JdbcWordMatchSource(File database) throws SQLException {
+        if (!database.isFile()) {
+            throw new SQLException("No database at " + database.getAbsolutePath());
+        }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        connection = config.createConnection("jdbc:sqlite:" + database.getPath());
+    }
+
+    @Override
+    public Rows query(String sql, String[] selectionArgs) {
+        final ResultSet rows;
+        try {
+            PreparedStatement statement = getStatement(sql);
+            for (int i = 0; i < selectionArgs.length; i++) {
+                statement.setString(i + 1, selectionArgs[i]);
+            }
+            rows = statement.executeQuery();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to query the database", e);
+        }
+
+        // JDBC numbers columns from 1
+        return new Rows() {
+            @Override
+            public boolean moveToNext() {
+                try {
+                    return rows.next();
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to read the database", e);
+                }
+            }
+
+            @Override
+            public int getInt(int column) {
+                try {
+                    return rows.getInt(column + 1);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to read the database", e);
+                }
+            }
+
+            @Override
+            public String getString(int column) {
+                try {
+                    return rows.getString(column + 1);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to read the database", e);
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    rows.close();
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unable to close the rows", e);
+                }
+            }
+        };
+    }
+
+    private PreparedStatement getStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            connection.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to close the database", e);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.jamesma.purdue.maps.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jamesma.purdue.maps.search.CampusLocation;
+import com.jamesma.purdue.maps.search.CandidateSet;
+
+/**
+ * The latency of a single keystroke in the search box: the suggestions for one query, from the
+ * search to reading each row the way the search dialog reads the suggestion Cursor.
+ *
+ * The queries go from broad to narrow: a single letter scans the whole table, a single gram and
+ * a common word match many rows through the index, an abbreviation and a long name match few.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeystrokeBenchmark {
+
+    // As R.integer.max_suggestions
+    static final int MAX_SUGGESTIONS = 20;
+
+    @Param({ Datasets.CAMPUS, "10000", "100000" })
+    public String dataset;
+
+    @Param({ "e", "ha", "hall", "lwsn", "lawson computer" })
+    public String query;
+
+    private JdbcLocationSearch search;
+    // Matches of the query one keystroke earlier, null for a single letter or too many to cache
+    private CandidateSet previousMatches;
+    private String previousQuery;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        search = new JdbcLocationSearch(Datasets.getDatabase(dataset));
+        if (query.length() > 1) {
+            previousQuery = query.substring(0, query.length() - 1);
+            search.getWordMatches(previousQuery, MAX_SUGGESTIONS);
+            previousMatches = search.getQueryCache().get(previousQuery);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        search.close();
+    }
+
+    /**
+     * A keystroke nothing cached can answer, so the query goes to the database.
+     */
+    @Benchmark
+    public void uncached(Blackhole blackhole) {
+        search.clearCache();
+        readSuggestions(search.getWordMatches(query, MAX_SUGGESTIONS), blackhole);
+    }
+
+    /**
+     * A keystroke extending the previous one, narrowed down from the previous matches in the cache.
+     * A single letter, or one after a keystroke matching too many locations to cache, has nothing
+     * to narrow down from and goes to the database.
+     */
+    @Benchmark
+    public void narrowed(Blackhole blackhole) {
+        search.clearCache();
+        if (previousMatches != null) {
+            search.getQueryCache().put(previousQuery, previousMatches);
+        }
+        readSuggestions(search.getWordMatches(query, MAX_SUGGESTIONS), blackhole);
+    }
+
+    /**
+     * Read every suggestion column of every row, as the search dialog reads LocationsCursor.
+     */
+    static void readSuggestions(List<CampusLocation> suggestions, Blackhole blackhole) {
+        for (int i = 0; i < suggestions.size(); i++) {
+            CampusLocation suggestion = suggestions.get(i);
+            // _ID, SUGGEST_COLUMN_TEXT_1, SUGGEST_COLUMN_TEXT_2, SUGGEST_COLUMN_INTENT_DATA_ID
+            blackhole.consume(suggestion.getId());
+            blackhole.consume(suggestion.getName());
+            blackhole.consume(suggestion.getSubtitle());
+            blackhole.consume(Long.toString(suggestion.getId()));
+        }
+    }
+
+}
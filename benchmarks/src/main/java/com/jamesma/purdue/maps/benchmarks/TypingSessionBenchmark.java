@@ -0,0 +1,64 @@
+package com.jamesma.purdue.maps.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A user typing a query letter by letter from an empty search box, with suggestions for every
+ * keystroke: the first letters go to the database, the rest are mostly narrowed down from the
+ * cache. A name, a broad phrase matching many rows, and an abbreviation.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypingSessionBenchmark {
+
+    @Param({ Datasets.CAMPUS, "10000", "100000" })
+    public String dataset;
+
+    @Param({ "lawson computer science", "residence hall", "lwsn" })
+    public String typed;
+
+    private JdbcLocationSearch search;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        search = new JdbcLocationSearch(Datasets.getDatabase(dataset));
+    }
+
+    @TearDown
+    public void tearDown() {
+        search.close();
+    }
+
+    @Benchmark
+    public void session(Blackhole blackhole) {
+        search.clearCache();
+        for (int length = 1; length <= typed.length(); length++) {
+            KeystrokeBenchmark.readSuggestions(
+                    search.getWordMatches(typed.substring(0, length), KeystrokeBenchmark.MAX_SUGGESTIONS), blackhole);
+        }
+    }
+
+}
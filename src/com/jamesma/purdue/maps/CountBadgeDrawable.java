@@ -0,0 +1,93 @@
+package com.jamesma.purdue.maps;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * A round marker showing the number of locations in a cluster.
+ * 
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class CountBadgeDrawable extends Drawable {
+    
+    private static final int FILL_COLOR = 0xE0B1810B;
+    private static final int STROKE_COLOR = 0xFFFFFFFF;
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+    
+    private final String mText;
+    private final Paint mFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int mSize;
+    
+    /**
+     * @param count
+     *            The number shown on the badge
+     * @param density
+     *            The display density, badges grow with the number of digits from 32dp
+     */
+    public CountBadgeDrawable(int count, float density) {
+        mText = Integer.toString(count);
+        mSize = (int) ((28 + 4 * mText.length()) * density);
+        
+        mFillPaint.setColor(FILL_COLOR);
+        mStrokePaint.setColor(STROKE_COLOR);
+        mStrokePaint.setStyle(Paint.Style.STROKE);
+        mStrokePaint.setStrokeWidth(2 * density);
+        mTextPaint.setColor(TEXT_COLOR);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setTextSize(14 * density);
+        mTextPaint.setFakeBoldText(true);
+        
+        // Centered on the location like the default marker
+        setBounds(-mSize / 2, -mSize / 2, mSize - mSize / 2, mSize - mSize / 2);
+    }
+    
+    @Override
+    public void draw(Canvas canvas) {
+        Rect bounds = getBounds();
+        float cx = bounds.exactCenterX();
+        float cy = bounds.exactCenterY();
+        float radius = Math.min(bounds.width(), bounds.height()) / 2f - mStrokePaint.getStrokeWidth() / 2;
+        
+        canvas.drawCircle(cx, cy, radius, mFillPaint);
+        canvas.drawCircle(cx, cy, radius, mStrokePaint);
+        // Center the text vertically on its ascent and descent
+        canvas.drawText(mText, cx, cy - (mTextPaint.ascent() + mTextPaint.descent()) / 2, mTextPaint);
+    }
+    
+    @Override
+    public int getIntrinsicWidth() {
+        return mSize;
+    }
+    
+    @Override
+    public int getIntrinsicHeight() {
+        return mSize;
+    }
+    
+    @Override
+    public void setAlpha(int alpha) {
+        mFillPaint.setAlpha(alpha);
+        mStrokePaint.setAlpha(alpha);
+        mTextPaint.setAlpha(alpha);
+    }
+    
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mFillPaint.setColorFilter(cf);
+        mStrokePaint.setColorFilter(cf);
+        mTextPaint.setColorFilter(cf);
+    }
+    
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+    
+}
@@ -0,0 +1,102 @@
+package com.jamesma.purdue.maps;
+
+import com.jamesma.purdue.maps.geo.FootprintIndex;
+
+/**
+ * Tells when the user walks into or out of a building, by testing the smoothed location against
+ * the building footprints on every update.
+ *
+ * Fixes too inaccurate to tell one side of a wall from the other are skipped, so a jittery
+ * fix near a building doesn't make the user enter and leave it over and over. Evaluating a fix
+ * allocates nothing. Only use from the main thread.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class GeofenceMonitor implements SmoothedLocationStream.OnSmoothedLocationListener {
+
+    // Fixes less accurate than this can't place the user inside or outside a building
+    private static final float MAX_ACCURACY_METERS = 25;
+    // Footprints may overlap, no point is inside more than this many
+    private static final int MAX_CONTAINING = 8;
+
+    private final OnGeofenceListener mListener;
+    private FootprintIndex mIndex;
+
+    // The buildings the user is inside, and the ones found for the latest fix
+    private int[] mInside = new int[MAX_CONTAINING];
+    private int mInsideCount = 0;
+    private int[] mFound = new int[MAX_CONTAINING];
+
+    /**
+     * Told when the user enters or leaves a building.
+     */
+    public interface OnGeofenceListener {
+        /**
+         * @param footprintId
+         *            The location id of the building
+         */
+        void onEnter(int footprintId);
+
+        /**
+         * @param footprintId
+         *            The location id of the building
+         */
+        void onExit(int footprintId);
+    }
+
+    public GeofenceMonitor(OnGeofenceListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param index
+     *            The footprints to watch, fixes are ignored until they are set
+     */
+    public void setFootprints(FootprintIndex index) {
+        mIndex = index;
+    }
+
+    /**
+     * @return The footprints being watched, or null if they aren't set yet
+     */
+    public FootprintIndex getFootprints() {
+        return mIndex;
+    }
+
+    @Override
+    public void onSmoothedLocationChanged(int latE6, int lngE6, float accuracyMeters, long timeMillis) {
+        FootprintIndex index = mIndex;
+        if (index == null || accuracyMeters > MAX_ACCURACY_METERS) {
+            return;
+        }
+
+        int foundCount = index.getContaining(latE6, lngE6, mFound);
+        for (int i = 0; i < mInsideCount; i++) {
+            if (!contains(mFound, foundCount, mInside[i])) {
+                mListener.onExit(mInside[i]);
+            }
+        }
+        for (int i = 0; i < foundCount; i++) {
+            if (!contains(mInside, mInsideCount, mFound[i])) {
+                mListener.onEnter(mFound[i]);
+            }
+        }
+
+        // The latest fix becomes the current state, the old one is reused next time
+        int[] swap = mInside;
+        mInside = mFound;
+        mInsideCount = foundCount;
+        mFound = swap;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.jamesma.purdue.maps;
+
+import android.location.Location;
+
+import com.jamesma.purdue.maps.MyLocationPoller.LocationResult;
+
+/**
+ * A pending one-off location fix, see {@link MyLocationPoller#getLocation}.
+ *
+ * The result is told on the main thread exactly once, unless the request is cancelled first.
+ * Cancelling the last request waiting for a fix ends the subscription to the providers at once,
+ * so an activity cancels its requests when it pauses and leaves no radio running behind it.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class LocationRequest {
+
+    private final LocationRequestManager mManager;
+    private final LocationResult mResult;
+    // Guarded by the manager: told or cancelled, either way the result is never told again
+    private boolean mDone = false;
+    private boolean mCancelled = false;
+
+    LocationRequest(LocationRequestManager manager, LocationResult result) {
+        mManager = manager;
+        mResult = result;
+    }
+
+    /**
+     * Stop waiting for the fix, the result is never told. Does nothing if it was already told.
+     */
+    public void cancel() {
+        mManager.cancel(this);
+    }
+
+    /**
+     * @return Whether the result was told or the request was cancelled
+     */
+    public boolean isDone() {
+        synchronized (mManager) {
+            return mDone;
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (mManager) {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Mark the request done, by the manager holding its lock.
+     *
+     * @return False if it already was
+     */
+    boolean finish(boolean cancelled) {
+        if (mDone) {
+            return false;
+        }
+        mDone = true;
+        mCancelled = cancelled;
+        return true;
+    }
+
+    /**
+     * Tell the result the fix, from the main thread without the manager's lock.
+     */
+    void tell(Location location) {
+        mResult.gotLocation(location);
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.jamesma.purdue.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.jamesma.purdue.maps.MyLocationPoller.LocationResult;
+
+/**
+ * Gets one-off location fixes for the whole process.
+ *
+ * Requests made while another is waiting for a fix join it rather than subscribing again, and
+ * every waiting {@link LocationRequest} gets the same fix. So however often the user asks for
+ * their location there is at most one subscription to each provider, and it ends as soon as the
+ * last request waiting for it is cancelled. Updates, timeouts and results are all handled on the
+ * main looper, no thread is started.
+ *
+ * Fixes are acquired by a policy configured in resources:
+ * <ol>
+ * <li>A last known location recent and accurate enough is used straight away, without turning on any radio.</li>
+ * <li>Otherwise updates are listened for until one is accurate enough, and the subscription is ended at once.</li>
+ * <li>At the deadline the best fix seen is used, whether an update or a last known location.</li>
+ * </ol>
+ * Fixes are compared by their expected error, which grows with their age and is guessed by
+ * provider when they don't report an accuracy. How often each path is taken is counted, see
+ * {@link #toString()}.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class LocationRequestManager {
+    private static final String TAG = "LocationRequestManager";
+
+    // The user may have walked this far since a fix, in meters per second
+    private static final float WALKING_SPEED = 1.4f;
+    // Assumed accuracy of fixes that don't report one
+    private static final float GPS_DEFAULT_ACCURACY_METERS = 50;
+    private static final float NETWORK_DEFAULT_ACCURACY_METERS = 1000;
+
+    private static LocationRequestManager sInstance;
+
+    private final LocationManager mLocationManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The acquisition policy
+    private final long mMaxCachedAgeMillis;
+    private final float mMaxCachedAccuracyMeters;
+    private final float mTargetAccuracyMeters;
+    private final long mDeadlineMillis;
+
+    // Guarded by this: the requests waiting for the active subscription, none when there isn't one
+    private final List<LocationRequest> mWaiting = new ArrayList<LocationRequest>();
+    private boolean mGpsEnabled = false;
+    private boolean mNetworkEnabled = false;
+    // The best update of the active subscription so far
+    private Location mBestUpdate;
+
+    // Guarded by this: how often requests joined one already waiting, how each fix was acquired,
+    // and how many requests were cancelled before being told
+    private int mCoalescedCount = 0;
+    private int mCachedCount = 0;
+    private int mTargetCount = 0;
+    private int mDeadlineUpdateCount = 0;
+    private int mDeadlineLastKnownCount = 0;
+    private int mDeadlineNoneCount = 0;
+    private int mCancelledCount = 0;
+
+    private LocationRequestManager(Context context) {
+        mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+
+        Resources res = context.getResources();
+        mMaxCachedAgeMillis = res.getInteger(R.integer.location_max_cached_age_seconds) * 1000L;
+        mMaxCachedAccuracyMeters = res.getInteger(R.integer.location_max_cached_accuracy_meters);
+        mTargetAccuracyMeters = res.getInteger(R.integer.location_target_accuracy_meters);
+        mDeadlineMillis = res.getInteger(R.integer.location_deadline_seconds) * 1000L;
+    }
+
+    public static synchronized LocationRequestManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationRequestManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asks for a fix, joining the request that is already waiting for one if there is.
+     *
+     * @param result
+     *            Told the fix on the main thread, or null if there is none
+     * @return The pending request, or null if every provider is disabled, in which case the result is never told
+     */
+    public synchronized LocationRequest requestLocation(LocationResult result) {
+        final LocationRequest request = new LocationRequest(this, result);
+        if (!mWaiting.isEmpty()) {
+            mWaiting.add(request);
+            mCoalescedCount++;
+            return request;
+        }
+
+        mGpsEnabled = mLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+        mNetworkEnabled = mLocationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+
+        // Don't start listeners if providers are disabled
+        if (!mGpsEnabled && !mNetworkEnabled) {
+            return null;
+        }
+
+        // A good enough fix is already known, no need to turn on a radio
+        final Location lastKnown = getLastKnownLocation();
+        if (lastKnown != null && getAgeMillis(lastKnown) <= mMaxCachedAgeMillis
+                && getAccuracyMeters(lastKnown) <= mMaxCachedAccuracyMeters) {
+            mCachedCount++;
+            // Told later like any other fix, never from within the request
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    tell(request, lastKnown);
+                }
+            });
+            return request;
+        }
+
+        mWaiting.add(request);
+        mBestUpdate = null;
+        Looper looper = Looper.getMainLooper();
+        if (mGpsEnabled) {
+            mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, mListener, looper);
+        }
+        if (mNetworkEnabled) {
+            mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0, mListener, looper);
+        }
+        mHandler.postDelayed(mDeadline, mDeadlineMillis);
+        return request;
+    }
+
+    /**
+     * Stop waiting for a fix, see {@link LocationRequest#cancel()}. The subscription ends with
+     * the last request waiting for it.
+     */
+    synchronized void cancel(LocationRequest request) {
+        if (!request.finish(true)) {
+            return;
+        }
+        mCancelledCount++;
+        if (mWaiting.remove(request) && mWaiting.isEmpty()) {
+            endSubscription();
+        }
+    }
+
+    /**
+     * Stop listening and forget the deadline, by the caller holding the lock.
+     */
+    private void endSubscription() {
+        mBestUpdate = null;
+        mLocationManager.removeUpdates(mListener);
+        mHandler.removeCallbacks(mDeadline);
+    }
+
+    private final LocationListener mListener = new LocationListener() {
+
+        @Override
+        public void onLocationChanged(Location location) {
+            Location fix;
+            synchronized (LocationRequestManager.this) {
+                if (mWaiting.isEmpty()) {
+                    // An update already queued when the subscription ended
+                    return;
+                }
+                mBestUpdate = getBetter(mBestUpdate, location);
+                if (getAccuracyMeters(location) > mTargetAccuracyMeters) {
+                    // Keep listening for a better one
+                    return;
+                }
+                mTargetCount++;
+                fix = mBestUpdate;
+            }
+            deliver(fix);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+        @Override
+        public void onProviderEnabled(String provider) {}
+
+        @Override
+        public void onProviderDisabled(String provider) {}
+
+    };
+
+    private final Runnable mDeadline = new Runnable() {
+
+        @Override
+        public void run() {
+            Location fix;
+            synchronized (LocationRequestManager.this) {
+                if (mWaiting.isEmpty()) {
+                    return;
+                }
+                Location lastKnown = getLastKnownLocation();
+                fix = getBetter(mBestUpdate, lastKnown);
+                if (fix == null) {
+                    mDeadlineNoneCount++;
+                } else if (fix == mBestUpdate) {
+                    mDeadlineUpdateCount++;
+                } else {
+                    mDeadlineLastKnownCount++;
+                }
+            }
+            deliver(fix);
+        }
+
+    };
+
+    /**
+     * Note: getLastKnownLocation() is a non-blocking call and assuming the application has just started,
+     * there is a possibility that there is no "last known location" of the system.
+     *
+     * @return The best last known location of the enabled providers, or null if there is none
+     */
+    private synchronized Location getLastKnownLocation() {
+        Location gpsLastLoc = mGpsEnabled ? mLocationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER) : null;
+        Location networkLastLoc = mNetworkEnabled ? mLocationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER) : null;
+        return getBetter(gpsLastLoc, networkLastLoc);
+    }
+
+    /**
+     * @return Whichever fix is expected to be closer to where the user is now, or null if both are null
+     */
+    private static Location getBetter(Location a, Location b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return getExpectedErrorMeters(b) < getExpectedErrorMeters(a) ? b : a;
+    }
+
+    /**
+     * How far a fix is likely to be from where the user is now: its accuracy, plus how far they
+     * may have walked since it was taken.
+     */
+    private static float getExpectedErrorMeters(Location location) {
+        return getAccuracyMeters(location) + WALKING_SPEED * getAgeMillis(location) / 1000f;
+    }
+
+    /**
+     * @return The accuracy of a fix, or a guess by provider if it doesn't report one
+     */
+    private static float getAccuracyMeters(Location location) {
+        if (location.hasAccuracy()) {
+            return location.getAccuracy();
+        }
+        return LocationManager.GPS_PROVIDER.equals(location.getProvider())
+                ? GPS_DEFAULT_ACCURACY_METERS : NETWORK_DEFAULT_ACCURACY_METERS;
+    }
+
+    private static long getAgeMillis(Location location) {
+        return Math.max(0, System.currentTimeMillis() - location.getTime());
+    }
+
+    /**
+     * End the active subscription and hand its fix to everyone waiting for it.
+     */
+    private void deliver(Location location) {
+        List<LocationRequest> waiting;
+        synchronized (this) {
+            waiting = new ArrayList<LocationRequest>(mWaiting);
+            mWaiting.clear();
+            endSubscription();
+        }
+
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, toString());
+        }
+
+        for (LocationRequest request : waiting) {
+            tell(request, location);
+        }
+    }
+
+    /**
+     * Tell one request its fix, unless it has been cancelled, even by the result of another.
+     */
+    private void tell(LocationRequest request, Location location) {
+        synchronized (this) {
+            if (!request.finish(false)) {
+                return;
+            }
+        }
+        request.tell(location);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LocationRequestManager[coalesced=" + mCoalescedCount + ", cached=" + mCachedCount
+                + ", target=" + mTargetCount + ", deadlineUpdate=" + mDeadlineUpdateCount
+                + ", deadlineLastKnown=" + mDeadlineLastKnownCount + ", deadlineNone=" + mDeadlineNoneCount
+                + ", cancelled=" + mCancelledCount + ", waiting=" + mWaiting.size() + "]";
+    }
+
+}
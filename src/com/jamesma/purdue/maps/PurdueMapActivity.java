@@ -1,5 +1,9 @@
 package com.jamesma.purdue.maps;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -8,15 +12,25 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.location.LocationManager;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.provider.Settings;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.SubMenu;
+import android.widget.Toast;
 
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapActivity;
@@ -26,6 +40,13 @@ import com.google.android.maps.MyLocationOverlay;
 import com.google.android.maps.Overlay;
 import com.jamesma.purdue.maps.MyLocationPoller.LocationResult;
 import com.jamesma.purdue.maps.database.DatabaseHelper;
+import com.jamesma.purdue.maps.database.LocationsProvider;
+import com.jamesma.purdue.maps.geo.FootprintIndex;
+import com.jamesma.purdue.maps.geo.GeoMath;
+import com.jamesma.purdue.maps.geo.GridClusterer;
+import com.jamesma.purdue.maps.geo.LastKnownFix;
+import com.jamesma.purdue.maps.tiles.OfflineTileOverlay;
+import com.jamesma.purdue.maps.tiles.TilePack;
 import com.readystatesoftware.maps.OnSingleTapListener;
 import com.readystatesoftware.maps.TapControlledMapView;
 
@@ -35,6 +56,7 @@ import com.readystatesoftware.maps.TapControlledMapView;
  *
  */
 public class PurdueMapActivity extends MapActivity {
+    private static final String TAG = "PurdueMapActivity";
     
     private static final String LOC_DIALOG_TITLE = "Location services are disabled";
     private static final String LOC_DIALOG_MESSAGE = "This App requires location services to work. Do you want you enable it?";
@@ -42,12 +64,49 @@ public class PurdueMapActivity extends MapActivity {
     private static final String LOC_DIALOG_NEG_BUTTON = "No, Leave App";
     private static final int BALLOON_OFFSET = 25;
     private static final int ZOOM_LEVEL = 17;
+    // Search results are added to the map this many at a time
+    private static final int SEARCH_BATCH_SIZE = 50;
+    // Extra room around search results when zooming to them, so markers on the edge are not cut off
+    private static final float SEARCH_SPAN_PADDING = 1.2f;
+    // Offline tiles, built by TilePackBuilder in tools/ and copied to the app's files dir
+    private static final String TILE_PACK_NAME = "campus_tiles.pack";
+    // The smoothed location must move this far before the reticle and search ranking follow it
+    private static final float LOCATION_MIN_MOVEMENT_METERS = 5;
+    // Building entry is checked on every smoothed fix that moves at least this far
+    private static final float GEOFENCE_MIN_MOVEMENT_METERS = 1;
+    // Footprints may overlap, a route ends in at most this many
+    private static final int MAX_DESTINATION_FOOTPRINTS = 8;
+    // Typical walking pace, for the time a route takes
+    private static final int WALKING_METERS_PER_MINUTE = 80;
     
     private MyLocationOverlay myLocationOverlay;
     private TapControlledMapView mapView;
     private PurdueMapItemizedOverlay itemizedOverlay;
+    private OfflineTileOverlay offlineTileOverlay;
+    private RouteOverlay routeOverlay;
     private MapController mapController;
     private LocationManager locManager;
+    private SmoothedLocationStream smoothedLocationStream;
+    // Where the reticle is drawn, the smoothed location, null until there is one
+    private GeoPoint smoothedLocation;
+    
+    // Whether every location is shown clustered rather than the searched one
+    private boolean showingAllLocations = false;
+    private LoadAllLocationsTask loadAllLocationsTask;
+    private SearchLocationsTask searchLocationsTask;
+    private ShowLocationTask showLocationTask;
+    private RouteTask routeTask;
+    // Fixes asked for while resumed, cancelled when paused so no radio outlives the activity
+    private final List<LocationRequest> locationRequests = new ArrayList<LocationRequest>();
+    
+    // Null unless arrival detection is enabled
+    private GeofenceMonitor geofenceMonitor;
+    // Reloads the footprints once the database is ready, and whenever an update changes them
+    private ContentObserver footprintsObserver;
+    // The buildings the shown route ends in, arriving in one of them ends the route
+    private final int[] routeDestinationIds = new int[MAX_DESTINATION_FOOTPRINTS];
+    private int routeDestinationCount = 0;
+    private String routeDestinationTitle;
     
     @Override
     protected void onStart() {
@@ -82,6 +141,9 @@ public class PurdueMapActivity extends MapActivity {
             
             dialog.show();
         } else {
+            // Something to rank searches by until the first fix comes in
+            rememberFix(locManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER));
+            rememberFix(locManager.getLastKnownLocation(LocationManager.GPS_PROVIDER));
             animateToCurrentLocation();
         }
     }
@@ -91,6 +153,17 @@ public class PurdueMapActivity extends MapActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.purdue_map_activity);
         initializeMapView();
+        
+        if (geofenceMonitor != null) {
+            footprintsObserver = new ContentObserver(new Handler()) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    new LoadFootprintsTask().execute();
+                }
+            };
+            getContentResolver().registerContentObserver(LocationsProvider.FOOTPRINTS_URI, false, footprintsObserver);
+            new LoadFootprintsTask().execute();
+        }
         handleIntent(getIntent());
     }
     
@@ -116,6 +189,10 @@ public class PurdueMapActivity extends MapActivity {
         myLocationOverlay.enableMyLocation();
         myLocationOverlay.enableCompass();
         mapView.setReticleDrawMode(MapView.ReticleDrawMode.DRAW_RETICLE_OVER);
+        smoothedLocationStream.addListener(smoothedLocationListener, LOCATION_MIN_MOVEMENT_METERS);
+        if (geofenceMonitor != null) {
+            smoothedLocationStream.addListener(geofenceMonitor, GEOFENCE_MIN_MOVEMENT_METERS);
+        }
     }
     
     @Override
@@ -125,6 +202,26 @@ public class PurdueMapActivity extends MapActivity {
         // Unregister from location updates
         myLocationOverlay.disableMyLocation();
         myLocationOverlay.disableCompass();
+        smoothedLocationStream.removeListener(smoothedLocationListener);
+        if (geofenceMonitor != null) {
+            smoothedLocationStream.removeListener(geofenceMonitor);
+        }
+        cancelLocationRequests();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        
+        cancelLoading();
+        if (footprintsObserver != null) {
+            getContentResolver().unregisterContentObserver(footprintsObserver);
+            footprintsObserver = null;
+        }
+        if (offlineTileOverlay != null) {
+            offlineTileOverlay.close();
+            offlineTileOverlay = null;
+        }
     }
 
     @Override
@@ -133,9 +230,17 @@ public class PurdueMapActivity extends MapActivity {
         return true;
     }
     
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.show_all_locations).setChecked(showingAllLocations);
+        menu.findItem(R.id.nearest_first).setChecked(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(LocationsProvider.PREF_NEAREST_FIRST, false));
+        return true;
+    }
+    
     @Override
     protected boolean isRouteDisplayed() {
-        return false;
+        return routeOverlay.hasRoute();
     }
     
     @Override
@@ -149,6 +254,24 @@ public class PurdueMapActivity extends MapActivity {
                 // Animate to current location
                 animateToCurrentLocation();
                 break;
+            case R.id.nearby_locations:
+                // List the buildings closest to the user
+                showNearbyLocations();
+                break;
+            case R.id.show_all_locations:
+                if (showingAllLocations) {
+                    hideAllLocations();
+                } else {
+                    showAllLocations();
+                }
+                break;
+            case R.id.nearest_first:
+                // Rank suggestions and search results by distance from the user
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+                boolean nearestFirst = !prefs.getBoolean(LocationsProvider.PREF_NEAREST_FIRST, false);
+                prefs.edit().putBoolean(LocationsProvider.PREF_NEAREST_FIRST, nearestFirst).commit();
+                item.setChecked(nearestFirst);
+                break;
             case R.id.layers:
                 // Layer menu
                 SubMenu subMenu = item.getSubMenu();
@@ -183,6 +306,7 @@ public class PurdueMapActivity extends MapActivity {
             public void gotLocation(Location location) {
                 if (location == null)
                     return;
+                rememberFix(location);
                 
                 // Animate to the last known (or current) location of user
                 GeoPoint initPt = new GeoPoint(
@@ -193,8 +317,555 @@ public class PurdueMapActivity extends MapActivity {
             
         };
         
-        MyLocationPoller myLocationPoller = new MyLocationPoller();
-        myLocationPoller.getLocation(this, locResult);
+        requestLocation(locResult);
+    }
+    
+    /**
+     * Ask for a fix, to be cancelled if the activity pauses before it comes in.
+     * 
+     * @param result
+     *            Told the fix on the main thread, or null if there is none
+     * @return False if every provider is disabled, in which case the result is never told
+     */
+    private boolean requestLocation(LocationResult result) {
+        // Forget the requests already told or cancelled
+        for (int i = locationRequests.size() - 1; i >= 0; i--) {
+            if (locationRequests.get(i).isDone()) {
+                locationRequests.remove(i);
+            }
+        }
+        
+        LocationRequest request = new MyLocationPoller().getLocation(this, result);
+        if (request == null) {
+            return false;
+        }
+        locationRequests.add(request);
+        return true;
+    }
+    
+    /**
+     * Stop waiting for every fix asked for, ending the providers' subscription if no one else waits.
+     */
+    private void cancelLocationRequests() {
+        for (LocationRequest request : locationRequests) {
+            request.cancel();
+        }
+        locationRequests.clear();
+    }
+    
+    /**
+     * Follows the user's smoothed location with the reticle and the search ranking.
+     */
+    private final SmoothedLocationStream.OnSmoothedLocationListener smoothedLocationListener = 
+            new SmoothedLocationStream.OnSmoothedLocationListener() {
+        
+        @Override
+        public void onSmoothedLocationChanged(int latE6, int lngE6, float accuracyMeters, long timeMillis) {
+            smoothedLocation = new GeoPoint(latE6, lngE6);
+            LastKnownFix.update(latE6, lngE6, timeMillis);
+            mapView.postInvalidate();
+        }
+        
+    };
+    
+    /**
+     * Share a fix with the search ranking, see {@link LocationsProvider#PREF_NEAREST_FIRST}.
+     * 
+     * @param location
+     *            The fix, ignored if null
+     */
+    private static void rememberFix(Location location) {
+        if (location != null) {
+            LastKnownFix.update(
+                    (int) (location.getLatitude() * 1e6), 
+                    (int) (location.getLongitude() * 1e6), 
+                    location.getTime());
+        }
+    }
+    
+    /**
+     * Get the user's location and list the closest buildings, picking one shows it on the map.
+     */
+    private void showNearbyLocations() {
+        LocationResult locResult = new LocationResult() {
+            
+            @Override
+            public void gotLocation(Location location) {
+                if (location == null) {
+                    Toast.makeText(PurdueMapActivity.this, R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                rememberFix(location);
+                new NearestLocationsTask().execute(location);
+            }
+            
+        };
+        
+        if (!requestLocation(locResult)) {
+            Toast.makeText(this, R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    /**
+     * Looks up the locations closest to a fix off the main thread, then lists them with their distances.
+     */
+    private class NearestLocationsTask extends AsyncTask<Location, Void, List<PurdueMapOverlayItem>> {
+        
+        private int latE6;
+        private int lngE6;
+        
+        @Override
+        protected List<PurdueMapOverlayItem> doInBackground(Location... params) {
+            latE6 = (int) (params[0].getLatitude() * 1e6);
+            lngE6 = (int) (params[0].getLongitude() * 1e6);
+            int k = getResources().getInteger(R.integer.nearest_locations);
+            
+            List<PurdueMapOverlayItem> items = new ArrayList<PurdueMapOverlayItem>(k);
+            Cursor cursor = getContentResolver().query(LocationsProvider.buildNearestUri(latE6, lngE6, k), null, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        items.add(readOverlayItem(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return items;
+        }
+        
+        @Override
+        protected void onPostExecute(final List<PurdueMapOverlayItem> items) {
+            if (isFinishing()) {
+                return;
+            }
+            if (items.isEmpty()) {
+                Toast.makeText(PurdueMapActivity.this, R.string.nearby_none, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            
+            String[] labels = new String[items.size()];
+            for (int i = 0; i < labels.length; i++) {
+                GeoPoint pt = items.get(i).getPoint();
+                double meters = GeoMath.distanceMeters(latE6, lngE6, pt.getLatitudeE6(), pt.getLongitudeE6());
+                labels[i] = getString(R.string.nearby_item, items.get(i).getTitle(), Math.round(meters));
+            }
+            
+            AlertDialog.Builder dialog = new AlertDialog.Builder(PurdueMapActivity.this);
+            dialog.setTitle(R.string.nearby_title);
+            dialog.setItems(labels, new OnClickListener() {
+                public void onClick(DialogInterface dialog, int which) {
+                    showSingleItem(items.get(which));
+                }
+            });
+            dialog.show();
+        }
+        
+    }
+    
+    /**
+     * Get the user's location and show the walking route from it to an item. Without a fix the 
+     * directions are left to a maps app.
+     * 
+     * @param item
+     */
+    private void showWalkingRoute(final PurdueMapOverlayItem item) {
+        LocationResult locResult = new LocationResult() {
+            
+            @Override
+            public void gotLocation(Location location) {
+                if (location == null) {
+                    Toast.makeText(PurdueMapActivity.this, R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+                    itemizedOverlay.showExternalDirections(item);
+                    return;
+                }
+                
+                rememberFix(location);
+                clearRoute();
+                routeTask = new RouteTask(item);
+                routeTask.execute(location);
+            }
+            
+        };
+        
+        if (!requestLocation(locResult)) {
+            itemizedOverlay.showExternalDirections(item);
+        }
+    }
+    
+    /**
+     * Stop finding a route and take the shown one off the map.
+     */
+    private void clearRoute() {
+        if (routeTask != null) {
+            routeTask.cancel(false);
+            routeTask = null;
+        }
+        routeDestinationCount = 0;
+        if (routeOverlay.hasRoute()) {
+            routeOverlay.clearRoute();
+            mapView.getOverlays().remove(routeOverlay);
+            mapView.postInvalidate();
+        }
+    }
+    
+    /**
+     * Finds the walking route from a fix to an item off the main thread, then draws it and zooms to it.
+     * If the walkways don't lead there the directions are left to a maps app.
+     */
+    private class RouteTask extends AsyncTask<Location, Void, Boolean> {
+        
+        private final PurdueMapOverlayItem item;
+        
+        // The route read in the background, only valid once done
+        private int[] latitudesE6;
+        private int[] longitudesE6;
+        private double lengthMeters = 0;
+        
+        RouteTask(PurdueMapOverlayItem item) {
+            this.item = item;
+        }
+        
+        @Override
+        protected Boolean doInBackground(Location... params) {
+            GeoPoint to = item.getPoint();
+            Uri uri = LocationsProvider.buildRouteUri(
+                    (int) (params[0].getLatitude() * 1e6), 
+                    (int) (params[0].getLongitude() * 1e6), 
+                    to.getLatitudeE6(), 
+                    to.getLongitudeE6());
+            Cursor cursor = getContentResolver().query(uri, null, null, null, null);
+            if (cursor == null) {
+                return false;
+            }
+            
+            try {
+                latitudesE6 = new int[cursor.getCount()];
+                longitudesE6 = new int[latitudesE6.length];
+                int latColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.LAT_E6);
+                int lngColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.LNG_E6);
+                int distanceColumn = cursor.getColumnIndexOrThrow(LocationsProvider.ROUTE_DISTANCE_METERS);
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    latitudesE6[i] = cursor.getInt(latColumn);
+                    longitudesE6[i] = cursor.getInt(lngColumn);
+                    lengthMeters = cursor.getDouble(distanceColumn);
+                }
+            } finally {
+                cursor.close();
+            }
+            
+            // Empty while the walkways are still loading
+            return latitudesE6.length >= 2;
+        }
+        
+        @Override
+        protected void onPostExecute(Boolean found) {
+            if (routeTask != this) {
+                return;
+            }
+            routeTask = null;
+            
+            if (!found) {
+                Toast.makeText(PurdueMapActivity.this, R.string.route_unavailable, Toast.LENGTH_SHORT).show();
+                itemizedOverlay.showExternalDirections(item);
+                return;
+            }
+            
+            // Arriving in the destination's building ends the route
+            FootprintIndex footprints = geofenceMonitor == null ? null : geofenceMonitor.getFootprints();
+            if (footprints != null) {
+                GeoPoint to = item.getPoint();
+                routeDestinationCount = footprints.getContaining(to.getLatitudeE6(), to.getLongitudeE6(), routeDestinationIds);
+                routeDestinationTitle = item.getTitle();
+            }
+            
+            // Under the markers so they stay tappable
+            routeOverlay.setRoute(latitudesE6, longitudesE6);
+            List<Overlay> mapOverlays = mapView.getOverlays();
+            int markersIndex = mapOverlays.indexOf(itemizedOverlay);
+            mapOverlays.add(markersIndex == -1 ? mapOverlays.size() : markersIndex, routeOverlay);
+            
+            itemizedOverlay.hideAllBalloons();
+            mapController.zoomToSpan(
+                    (int) (routeOverlay.getLatSpanE6() * SEARCH_SPAN_PADDING), 
+                    (int) (routeOverlay.getLngSpanE6() * SEARCH_SPAN_PADDING));
+            mapController.animateTo(routeOverlay.getCenter());
+            mapView.postInvalidate();
+            
+            long meters = Math.round(lengthMeters);
+            long minutes = Math.max(1, Math.round(lengthMeters / WALKING_METERS_PER_MINUTE));
+            Toast.makeText(PurdueMapActivity.this, getString(R.string.route_summary, meters, minutes), Toast.LENGTH_LONG).show();
+        }
+        
+    }
+    
+    /**
+     * Ends the shown route once the user walks into the building it leads to.
+     */
+    private final GeofenceMonitor.OnGeofenceListener geofenceListener = new GeofenceMonitor.OnGeofenceListener() {
+        
+        @Override
+        public void onEnter(int footprintId) {
+            for (int i = 0; i < routeDestinationCount; i++) {
+                if (routeDestinationIds[i] == footprintId) {
+                    Toast.makeText(PurdueMapActivity.this, getString(R.string.route_arrived, routeDestinationTitle), Toast.LENGTH_LONG).show();
+                    clearRoute();
+                    return;
+                }
+            }
+        }
+        
+        @Override
+        public void onExit(int footprintId) {}
+        
+    };
+    
+    /**
+     * Reads the building footprints and indexes them off the main thread, then starts watching for 
+     * the user walking into buildings. If the database isn't ready yet, {@link #footprintsObserver} 
+     * tries again once it is.
+     */
+    private class LoadFootprintsTask extends AsyncTask<Void, Void, FootprintIndex> {
+        
+        @Override
+        protected FootprintIndex doInBackground(Void... params) {
+            Cursor cursor = getContentResolver().query(LocationsProvider.FOOTPRINTS_URI, null, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            
+            try {
+                int vertexCount = cursor.getCount();
+                if (vertexCount == 0) {
+                    return null;
+                }
+                
+                int[] latitudesE6 = new int[vertexCount];
+                int[] longitudesE6 = new int[vertexCount];
+                // At most one footprint per vertex, trimmed once counted
+                int[] ids = new int[vertexCount];
+                int[] vertexStarts = new int[vertexCount + 1];
+                int footprintCount = 0;
+                for (int v = 0; cursor.moveToNext(); v++) {
+                    int id = cursor.getInt(0);
+                    if (footprintCount == 0 || ids[footprintCount - 1] != id) {
+                        ids[footprintCount] = id;
+                        vertexStarts[footprintCount++] = v;
+                    }
+                    latitudesE6[v] = cursor.getInt(1);
+                    longitudesE6[v] = cursor.getInt(2);
+                }
+                vertexStarts[footprintCount] = vertexCount;
+                
+                int[] footprintIds = new int[footprintCount];
+                int[] footprintStarts = new int[footprintCount + 1];
+                System.arraycopy(ids, 0, footprintIds, 0, footprintCount);
+                System.arraycopy(vertexStarts, 0, footprintStarts, 0, footprintCount + 1);
+                return new FootprintIndex(footprintIds, footprintStarts, latitudesE6, longitudesE6);
+            } finally {
+                cursor.close();
+            }
+        }
+        
+        @Override
+        protected void onPostExecute(FootprintIndex index) {
+            if (isFinishing()) {
+                return;
+            }
+            if (index != null) {
+                geofenceMonitor.setFootprints(index);
+            }
+        }
+        
+    }
+    
+    /**
+     * Show every location on the map, clustered by zoom level. The locations are loaded in the background.
+     */
+    private void showAllLocations() {
+        cancelLoading();
+        showingAllLocations = true;
+        loadAllLocationsTask = new LoadAllLocationsTask();
+        loadAllLocationsTask.execute();
+    }
+    
+    /**
+     * Stop showing every location.
+     */
+    private void hideAllLocations() {
+        cancelLoading();
+        itemizedOverlay.removeOverlayItems();
+        mapView.postInvalidate();
+    }
+    
+    /**
+     * Stop any background loading of overlay items, the overlay is about to show something else.
+     */
+    private void cancelLoading() {
+        showingAllLocations = false;
+        clearRoute();
+        if (loadAllLocationsTask != null) {
+            loadAllLocationsTask.cancel(false);
+            loadAllLocationsTask = null;
+        }
+        if (searchLocationsTask != null) {
+            searchLocationsTask.cancel(false);
+            searchLocationsTask = null;
+        }
+        if (showLocationTask != null) {
+            showLocationTask.cancel(false);
+            showLocationTask = null;
+        }
+    }
+    
+    /**
+     * Reads the location at the current position of a Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}.
+     * 
+     * @param cursor
+     * @return An overlay item for the location
+     */
+    private static PurdueMapOverlayItem readOverlayItem(Cursor cursor) {
+        GeoPoint pt = new GeoPoint(
+                cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.LAT_E6)), 
+                cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.LNG_E6)));
+        
+        return new PurdueMapOverlayItem(pt, 
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.LOC_NAME)), 
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.ABBR)), 
+                cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.ADDR)));
+    }
+    
+    /**
+     * Make sure the overlay of searched locations is on the map.
+     */
+    private void showItemizedOverlay() {
+        List<Overlay> mapOverlays = mapView.getOverlays();
+        if (!mapOverlays.contains(itemizedOverlay)) {
+            mapOverlays.add(itemizedOverlay);
+        }
+        mapView.postInvalidate();
+    }
+    
+    /**
+     * Reads every location into overlay items and clusters them off the main thread, then shows them.
+     */
+    private class LoadAllLocationsTask extends AsyncTask<Void, Void, List<PurdueMapOverlayItem>> {
+        
+        private GridClusterer clusterer;
+        
+        @Override
+        protected List<PurdueMapOverlayItem> doInBackground(Void... params) {
+            List<PurdueMapOverlayItem> items = new ArrayList<PurdueMapOverlayItem>();
+            
+            // The whole world as a bounding box
+            Uri uri = LocationsProvider.buildWithinBoxUri(-90000000, -180000000, 90000000, 180000000);
+            Cursor cursor = getContentResolver().query(uri, null, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext() && !isCancelled()) {
+                        items.add(readOverlayItem(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            
+            clusterer = PurdueMapItemizedOverlay.clusterItems(items);
+            return items;
+        }
+        
+        @Override
+        protected void onPostExecute(List<PurdueMapOverlayItem> items) {
+            if (loadAllLocationsTask != this) {
+                return;
+            }
+            loadAllLocationsTask = null;
+            
+            itemizedOverlay.setClusteredItems(items, clusterer);
+            showItemizedOverlay();
+        }
+        
+    }
+    
+    /**
+     * Finds every location matching a query off the main thread, adding them to the overlay in batches 
+     * as they are read. Once all are in, the map is fit to them.
+     */
+    private class SearchLocationsTask extends AsyncTask<String, PurdueMapOverlayItem, Integer> {
+        
+        private String query;
+        
+        // Bounding box of the results, written in the background and read once done
+        private int minLatE6 = Integer.MAX_VALUE;
+        private int minLngE6 = Integer.MAX_VALUE;
+        private int maxLatE6 = Integer.MIN_VALUE;
+        private int maxLngE6 = Integer.MIN_VALUE;
+        
+        @Override
+        protected Integer doInBackground(String... params) {
+            query = params[0];
+            Cursor cursor = getContentResolver().query(LocationsProvider.buildSearchUri(query), null, null, null, null);
+            if (cursor == null) {
+                return 0;
+            }
+            
+            int count = 0;
+            try {
+                List<PurdueMapOverlayItem> batch = new ArrayList<PurdueMapOverlayItem>(SEARCH_BATCH_SIZE);
+                while (cursor.moveToNext() && !isCancelled()) {
+                    PurdueMapOverlayItem item = readOverlayItem(cursor);
+                    GeoPoint pt = item.getPoint();
+                    minLatE6 = Math.min(minLatE6, pt.getLatitudeE6());
+                    maxLatE6 = Math.max(maxLatE6, pt.getLatitudeE6());
+                    minLngE6 = Math.min(minLngE6, pt.getLongitudeE6());
+                    maxLngE6 = Math.max(maxLngE6, pt.getLongitudeE6());
+                    
+                    batch.add(item);
+                    count++;
+                    if (batch.size() == SEARCH_BATCH_SIZE) {
+                        publishProgress(batch.toArray(new PurdueMapOverlayItem[batch.size()]));
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    publishProgress(batch.toArray(new PurdueMapOverlayItem[batch.size()]));
+                }
+            } finally {
+                cursor.close();
+            }
+            return count;
+        }
+        
+        @Override
+        protected void onProgressUpdate(PurdueMapOverlayItem... items) {
+            if (searchLocationsTask != this) {
+                return;
+            }
+            itemizedOverlay.addOverlayItems(Arrays.asList(items));
+            showItemizedOverlay();
+        }
+        
+        @Override
+        protected void onPostExecute(Integer count) {
+            if (searchLocationsTask != this) {
+                return;
+            }
+            searchLocationsTask = null;
+            
+            if (count == 0) {
+                Toast.makeText(PurdueMapActivity.this, getString(R.string.no_search_results, query), Toast.LENGTH_SHORT).show();
+            } else if (count == 1) {
+                // A single result behaves like a picked suggestion
+                itemizedOverlay.onTap(0);
+                animateMapControllerTo(itemizedOverlay.getItem(0).getPoint());
+            } else {
+                mapController.zoomToSpan(
+                        (int) ((maxLatE6 - minLatE6) * SEARCH_SPAN_PADDING), 
+                        (int) ((maxLngE6 - minLngE6) * SEARCH_SPAN_PADDING));
+                mapController.animateTo(new GeoPoint((minLatE6 + maxLatE6) / 2, (minLngE6 + maxLngE6) / 2));
+            }
+        }
+        
     }
     
     /**
@@ -217,7 +888,18 @@ public class PurdueMapActivity extends MapActivity {
         });
         
         // Create an overlay that shows our current location
-        myLocationOverlay = new MyLocationOverlay(this, (MapView)mapView);
+        // The reticle is drawn at the smoothed location, so it doesn't jump with every noisy fix
+        myLocationOverlay = new MyLocationOverlay(this, (MapView)mapView) {
+            @Override
+            protected void drawMyLocation(Canvas canvas, MapView mapView, Location lastFix, GeoPoint myLocation, long when) {
+                GeoPoint smoothed = smoothedLocation;
+                super.drawMyLocation(canvas, mapView, lastFix, smoothed == null ? myLocation : smoothed, when);
+            }
+        };
+        smoothedLocationStream = SmoothedLocationStream.getInstance(this);
+        if (getResources().getBoolean(R.bool.use_arrival_detection)) {
+            geofenceMonitor = new GeofenceMonitor(geofenceListener);
+        }
         
         // Create an overlay that shows the user target location
         Drawable marker = this.getResources().getDrawable(R.drawable.blue_dot_marker);
@@ -231,12 +913,61 @@ public class PurdueMapActivity extends MapActivity {
         // Set bottom padding
         itemizedOverlay.setBalloonBottomOffset(BALLOON_OFFSET);
         
+        // Tapping a balloon shows the walking route there if enabled, otherwise a maps app gives directions
+        if (getResources().getBoolean(R.bool.use_walking_routes)) {
+            itemizedOverlay.setOnDirectionsRequestListener(new PurdueMapItemizedOverlay.OnDirectionsRequestListener() {
+                @Override
+                public boolean onDirectionsRequest(PurdueMapOverlayItem item) {
+                    showWalkingRoute(item);
+                    return true;
+                }
+            });
+        }
+        routeOverlay = new RouteOverlay(getResources().getDisplayMetrics().density);
+        
         // Add the current location overlay to the MapView and refresh it
         List<Overlay> mapOverlays = mapView.getOverlays();
         mapOverlays.add(myLocationOverlay);
+        
+        // Offline tiles go under everything else
+        offlineTileOverlay = openOfflineTiles();
+        if (offlineTileOverlay != null) {
+            mapOverlays.add(0, offlineTileOverlay);
+        }
         mapView.postInvalidate();
     }
     
+    /**
+     * Opens the offline tile pack if it is enabled and installed, in external storage or else internal storage.
+     * 
+     * @return An overlay drawing the tiles, or null if there are none
+     */
+    private OfflineTileOverlay openOfflineTiles() {
+        if (!getResources().getBoolean(R.bool.use_offline_tiles)) {
+            return null;
+        }
+        
+        File packFile = null;
+        File externalDir = getExternalFilesDir(null);
+        if (externalDir != null) {
+            packFile = new File(externalDir, TILE_PACK_NAME);
+        }
+        if (packFile == null || !packFile.exists()) {
+            packFile = new File(getFilesDir(), TILE_PACK_NAME);
+        }
+        if (!packFile.exists()) {
+            return null;
+        }
+        
+        // Only maps the file, tiles are read as they are drawn
+        try {
+            return new OfflineTileOverlay(TilePack.open(packFile), mapView);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open the offline tile pack", e);
+            return null;
+        }
+    }
+    
     /**
      * Code to handle the search intent. Both {@link #onCreate(Bundle)} and {@link #onNewIntent(Intent)} can create it.
      * 
@@ -244,53 +975,78 @@ public class PurdueMapActivity extends MapActivity {
      */
     private void handleIntent(Intent intent) {
         if (Intent.ACTION_SEARCH.equals(intent.getAction())) {
-            // Handle a search intent
-            // TODO
-        } else if (Intent.ACTION_VIEW.equals(intent.getAction())) {
-            // Handle a suggestion click (because the suggestions all use ACTION_VIEW)
+            // Handle a search intent, show every matching location
+            String query = intent.getStringExtra(SearchManager.QUERY);
+            if (query == null || query.trim().length() == 0) {
+                return;
+            }
             
-            // Remove all overlay items
+            cancelLoading();
             itemizedOverlay.removeOverlayItems();
             
-            // Add the new overlay item
-            String data = intent.getDataString();
-            Bundle extras = intent.getExtras();
-            String address = extras.getString(SearchManager.EXTRA_DATA_KEY);
-            
-            String[] dataTokens = data.split(DatabaseHelper.DATA_SEPARATOR);
-            if (dataTokens.length != 3) {
-                throw new Error("There was something wrong with the search");
+            searchLocationsTask = new SearchLocationsTask();
+            searchLocationsTask.execute(query.trim());
+        } else if (Intent.ACTION_VIEW.equals(intent.getAction())) {
+            // Handle a suggestion click (because the suggestions all use ACTION_VIEW)
+            cancelLoading();
+            showLocationTask = new ShowLocationTask();
+            showLocationTask.execute(intent.getData());
+        }
+    }
+    
+    /**
+     * Reads the location a suggestion points at off the main thread, then shows it. After the process
+     * was killed, the intent is replayed while the provider may still be opening the database, which 
+     * the lookup waits for.
+     */
+    private class ShowLocationTask extends AsyncTask<Uri, Void, PurdueMapOverlayItem> {
+        
+        @Override
+        protected PurdueMapOverlayItem doInBackground(Uri... params) {
+            // The suggestion Uri points at the location row, read its typed columns
+            Cursor cursor = getContentResolver().query(params[0], null, null, null, null);
+            if (cursor == null) {
+                return null;
             }
             
-            String loc_name = dataTokens[0];
-            String abbr = dataTokens[1];
-            String coords = dataTokens[2];
-            
-            String[] lat_and_lng = coords.split(",");
-            if (lat_and_lng.length != 2) {
-                throw new Error("There was something wrong with the search");
+            try {
+                return cursor.moveToFirst() ? readOverlayItem(cursor) : null;
+            } finally {
+                cursor.close();
             }
-            
-            int lat = (int) (Float.valueOf(lat_and_lng[0]) * 1e6);
-            int lng = (int) (Float.valueOf(lat_and_lng[1]) * 1e6);
-            GeoPoint pt = new GeoPoint(lat, lng);
-            
-            PurdueMapOverlayItem item = new PurdueMapOverlayItem(pt, loc_name, abbr, address);
-            
-            // Add item to overlay and refresh map view
-            itemizedOverlay.addOverlayItem(item);
-            
-            List<Overlay> mapOverlays = mapView.getOverlays();
-            if (!mapOverlays.contains(itemizedOverlay)) {
-                mapOverlays.add(itemizedOverlay);
+        }
+        
+        @Override
+        protected void onPostExecute(PurdueMapOverlayItem item) {
+            if (showLocationTask != this) {
+                return;
             }
+            showLocationTask = null;
             
-            mapView.postInvalidate();
-            
-            // Show the balloon for the location and zoom to it.
-            itemizedOverlay.onTap(0); // Only item, index is always 0
-            animateMapControllerTo(pt);
+            if (item != null) {
+                showSingleItem(item);
+            }
         }
+        
+    }
+    
+    /**
+     * Show only the given item on the map, with its balloon open, and zoom to it.
+     * 
+     * @param item
+     */
+    private void showSingleItem(PurdueMapOverlayItem item) {
+        // Remove all overlay items
+        cancelLoading();
+        itemizedOverlay.removeOverlayItems();
+        
+        // Add item to overlay and refresh map view
+        itemizedOverlay.addOverlayItem(item);
+        showItemizedOverlay();
+        
+        // Show the balloon for the location and zoom to it.
+        itemizedOverlay.onTap(0); // Only item, index is always 0
+        animateMapControllerTo(item.getPoint());
     }
     
     /**
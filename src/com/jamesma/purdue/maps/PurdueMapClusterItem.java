@@ -0,0 +1,48 @@
+package com.jamesma.purdue.maps;
+
+import com.google.android.maps.GeoPoint;
+
+/**
+ * An overlay item standing for several nearby locations, drawn as a count badge.
+ * 
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class PurdueMapClusterItem extends PurdueMapOverlayItem {
+    
+    private final int count;
+    private final int latSpanE6;
+    private final int lngSpanE6;
+
+    /**
+     * @param pt
+     *            The centroid of the locations
+     * @param title
+     * @param snippet
+     * @param count
+     *            The number of locations
+     * @param latSpanE6
+     *            Latitude span of the locations, to zoom in on them
+     * @param lngSpanE6
+     *            Longitude span of the locations
+     */
+    public PurdueMapClusterItem(GeoPoint pt, String title, String snippet, int count, int latSpanE6, int lngSpanE6) {
+        super(pt, title, snippet, null);
+        this.count = count;
+        this.latSpanE6 = latSpanE6;
+        this.lngSpanE6 = lngSpanE6;
+    }
+    
+    public int getCount() {
+        return this.count;
+    }
+    
+    public int getLatSpanE6() {
+        return this.latSpanE6;
+    }
+    
+    public int getLngSpanE6() {
+        return this.lngSpanE6;
+    }
+
+}
@@ -1,27 +1,101 @@
 package com.jamesma.purdue.maps;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.util.SparseArray;
 
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
+import com.jamesma.purdue.maps.geo.GridClusterer;
+import com.jamesma.purdue.maps.geo.GridClusterer.Cluster;
 import com.readystatesoftware.mapviewballoons.BalloonItemizedOverlay;
 
 /**
  * An overlay using MapViewBalloonsLibrary.
  * Contains convenience methods for creating balloon popups over the location marker.
  * 
+ * When clustering is on, nearby items are merged into count badges for the current zoom level,
+ * so showing every location at campus zoom draws a few dozen markers rather than hundreds.
+ * 
+ * Once there are more than a handful of items, only those inside the visible map plus a margin
+ * are handed to the ItemizedOverlay, so drawing and hit testing don't go over every item. The
+ * visible items are picked again when the map moves past the margin or changes zoom level, right
+ * after the draw that noticed it rather than during it. An open balloon stays on its item.
+ * 
  * @author James Ma (http://jamesma.info)
  *
  */
 public class PurdueMapItemizedOverlay extends BalloonItemizedOverlay<PurdueMapOverlayItem> {
     
+    // Clusters are cells of 64 pixels on screen
+    private static final int CLUSTER_CELL_SIZE_BITS = 6;
+    // Culling costs more than it saves below this many items
+    private static final int MIN_CULLED_ITEMS = 32;
+    // Items are kept this many map widths or heights beyond each edge of the visible map
+    private static final float CULL_MARGIN = 0.5f;
+    
     private ArrayList<PurdueMapOverlayItem> mOverlayItems = new ArrayList<PurdueMapOverlayItem>();
     private Context mContext;
+    
+    // What the overlay can show, either mOverlayItems or the clusters of the current zoom level
+    private List<PurdueMapOverlayItem> mSourceItems = mOverlayItems;
+    // What the overlay shows, the source items inside the cull box
+    private List<PurdueMapOverlayItem> mShownItems = mOverlayItems;
+    
+    // The box the shown items were picked for, only valid while mCulled is set
+    private boolean mCulled = false;
+    private int mCullZoom;
+    private int mCullMinLatE6;
+    private int mCullMinLngE6;
+    private int mCullMaxLatE6;
+    private int mCullMaxLngE6;
+    
+    // Set while a pick of the items for the viewport is posted to run after the current draw
+    private boolean mViewportRefreshPosted = false;
+    private final Runnable mViewportRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mViewportRefreshPosted = false;
+            MapView mapView = getMapView();
+            if (mClusterer != null && mapView.getZoomLevel() != mClusterZoom) {
+                showClusters(mapView.getZoomLevel());
+            } else if (mSourceItems.size() > MIN_CULLED_ITEMS && !isViewportCulled(mapView)) {
+                refresh();
+            } else {
+                return;
+            }
+            mapView.invalidate();
+        }
+    };
+    
+    // Set while clustering, the clustered items of each zoom level are built once and kept
+    private GridClusterer mClusterer;
+    @SuppressWarnings("unchecked")
+    private final List<PurdueMapOverlayItem>[] mClusteredItems = new List[GridClusterer.MAX_ZOOM + 1];
+    private int mClusterZoom = -1;
+    
+    // Badges are shared by every cluster of the same count
+    private final SparseArray<Drawable> mBadges = new SparseArray<Drawable>();
+    
+    private OnDirectionsRequestListener mDirectionsListener;
+    
+    /**
+     * Told when the balloon of a location is tapped to get directions to it.
+     */
+    public interface OnDirectionsRequestListener {
+        /**
+         * @param item
+         * @return Whether the directions were handled, otherwise they are shown by a maps app
+         */
+        boolean onDirectionsRequest(PurdueMapOverlayItem item);
+    }
 
     public PurdueMapItemizedOverlay(Drawable defaultMarker, MapView mapView) {
         super(boundCenter(defaultMarker), mapView);
@@ -30,16 +104,56 @@ public class PurdueMapItemizedOverlay extends BalloonItemizedOverlay<PurdueMapOv
 
     @Override
     protected PurdueMapOverlayItem createItem(int i) {
-        return mOverlayItems.get(i);
+        return mShownItems.get(i);
     }
 
     @Override
     public int size() {
-        return mOverlayItems.size();
+        return mShownItems.size();
+    }
+    
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        boolean stale = (mClusterer != null && mapView.getZoomLevel() != mClusterZoom)
+                || (mSourceItems.size() > MIN_CULLED_ITEMS && !isViewportCulled(mapView));
+        if (stale && !mViewportRefreshPosted) {
+            // Repopulating rebuilds the items, not something to do under the draw going over them
+            mViewportRefreshPosted = true;
+            mapView.post(mViewportRefresh);
+        }
+        super.draw(canvas, mapView, shadow);
     }
     
     @Override
     public boolean onBalloonTap(int index, PurdueMapOverlayItem item) {
+        if (item instanceof PurdueMapClusterItem) {
+            // Zoom in until the cluster's locations are apart
+            PurdueMapClusterItem cluster = (PurdueMapClusterItem) item;
+            hideAllBalloons();
+            getMapView().getController().zoomToSpan(cluster.getLatSpanE6(), cluster.getLngSpanE6());
+            getMapView().getController().animateTo(cluster.getPoint());
+            return true;
+        }
+        
+        if (mDirectionsListener != null && mDirectionsListener.onDirectionsRequest(item)) {
+            return true;
+        }
+        
+        showExternalDirections(item);
+        
+        return false;
+    }
+    
+    public void setOnDirectionsRequestListener(OnDirectionsRequestListener listener) {
+        mDirectionsListener = listener;
+    }
+    
+    /**
+     * Hands the location of an item over to a maps app for directions.
+     * 
+     * @param item
+     */
+    public void showExternalDirections(PurdueMapOverlayItem item) {
         String address = item.getAddress();
         Intent intent;
         
@@ -57,8 +171,6 @@ public class PurdueMapItemizedOverlay extends BalloonItemizedOverlay<PurdueMapOv
         }
         
         mContext.startActivity(intent);
-        
-        return false;
     }
     
     /**
@@ -67,16 +179,191 @@ public class PurdueMapItemizedOverlay extends BalloonItemizedOverlay<PurdueMapOv
      * @param item
      */
     public void addOverlayItem(PurdueMapOverlayItem item) {
+        stopClustering();
         mOverlayItems.add(item);
-        populate();
+        refresh();
+    }
+    
+    /**
+     * Add overlay items to the overlay and refresh it once.
+     * 
+     * @param items
+     */
+    public void addOverlayItems(Collection<? extends PurdueMapOverlayItem> items) {
+        stopClustering();
+        mOverlayItems.addAll(items);
+        refresh();
+    }
+    
+    /**
+     * Cluster items for every zoom level. This is the expensive part of clustering,
+     * so call it off the main thread and pass the result to {@link #setClusteredItems}.
+     * 
+     * @param items
+     * @return The clusters of the items
+     */
+    public static GridClusterer clusterItems(List<PurdueMapOverlayItem> items) {
+        int[] latitudesE6 = new int[items.size()];
+        int[] longitudesE6 = new int[items.size()];
+        for (int i = 0; i < latitudesE6.length; i++) {
+            GeoPoint pt = items.get(i).getPoint();
+            latitudesE6[i] = pt.getLatitudeE6();
+            longitudesE6[i] = pt.getLongitudeE6();
+        }
+        
+        GridClusterer clusterer = new GridClusterer(latitudesE6, longitudesE6, CLUSTER_CELL_SIZE_BITS);
+        // Zoom levels are built from the next one in, so this builds all of them
+        clusterer.getClusters(0);
+        return clusterer;
+    }
+    
+    /**
+     * Replace the overlay items with ones to be shown clustered, and refresh the overlay.
+     * 
+     * @param items
+     * @param clusterer
+     *            The clusters of the items, from {@link #clusterItems}
+     */
+    public void setClusteredItems(List<PurdueMapOverlayItem> items, GridClusterer clusterer) {
+        stopClustering();
+        mOverlayItems.clear();
+        mOverlayItems.addAll(items);
+        mClusterer = clusterer;
+        
+        showClusters(getMapView().getZoomLevel());
     }
     
     /**
      * Remove all overlay items.
      */
     public void removeOverlayItems() {
+        stopClustering();
         mOverlayItems.clear();
+        refresh();
+    }
+    
+    /**
+     * Pick the items to show for the current viewport and repopulate the overlay.
+     */
+    private void refresh() {
+        MapView mapView = getMapView();
+        int latSpan = mapView.getLatitudeSpan();
+        int lngSpan = mapView.getLongitudeSpan();
+        
+        // Nothing to gain from culling few items, and nothing to cull against before the first layout
+        if (mSourceItems.size() <= MIN_CULLED_ITEMS || latSpan <= 0 || lngSpan <= 0) {
+            mCulled = false;
+            mShownItems = mSourceItems;
+        } else {
+            GeoPoint center = mapView.getMapCenter();
+            int latMargin = (int) (latSpan * (0.5f + CULL_MARGIN));
+            int lngMargin = (int) (lngSpan * (0.5f + CULL_MARGIN));
+            mCulled = true;
+            mCullZoom = mapView.getZoomLevel();
+            mCullMinLatE6 = center.getLatitudeE6() - latMargin;
+            mCullMaxLatE6 = center.getLatitudeE6() + latMargin;
+            mCullMinLngE6 = center.getLongitudeE6() - lngMargin;
+            mCullMaxLngE6 = center.getLongitudeE6() + lngMargin;
+            
+            List<PurdueMapOverlayItem> shown = new ArrayList<PurdueMapOverlayItem>();
+            for (int i = 0; i < mSourceItems.size(); i++) {
+                PurdueMapOverlayItem item = mSourceItems.get(i);
+                GeoPoint pt = item.getPoint();
+                if (pt.getLatitudeE6() >= mCullMinLatE6 && pt.getLatitudeE6() <= mCullMaxLatE6
+                        && pt.getLongitudeE6() >= mCullMinLngE6 && pt.getLongitudeE6() <= mCullMaxLngE6) {
+                    shown.add(item);
+                }
+            }
+            mShownItems = shown;
+        }
+        
+        // The last focused index may be past the end of the new items or point at another one
+        PurdueMapOverlayItem focused = getFocus();
+        setLastFocusedIndex(-1);
         populate();
+        
+        if (focused != null) {
+            if (mShownItems.indexOf(focused) >= 0) {
+                // Focus it again at its new index, the balloon follows
+                setFocus(focused);
+            } else {
+                hideAllBalloons();
+            }
+        }
+    }
+    
+    /**
+     * @return Whether the shown items were picked for this zoom level and the visible map is inside their box
+     */
+    private boolean isViewportCulled(MapView mapView) {
+        if (!mCulled || mapView.getZoomLevel() != mCullZoom) {
+            return false;
+        }
+        GeoPoint center = mapView.getMapCenter();
+        int halfLatSpan = mapView.getLatitudeSpan() / 2;
+        int halfLngSpan = mapView.getLongitudeSpan() / 2;
+        return center.getLatitudeE6() - halfLatSpan >= mCullMinLatE6
+                && center.getLatitudeE6() + halfLatSpan <= mCullMaxLatE6
+                && center.getLongitudeE6() - halfLngSpan >= mCullMinLngE6
+                && center.getLongitudeE6() + halfLngSpan <= mCullMaxLngE6;
+    }
+    
+    /**
+     * Show the clustered items of a zoom level.
+     * 
+     * @param zoom
+     */
+    private void showClusters(int zoom) {
+        zoom = Math.max(0, Math.min(GridClusterer.MAX_ZOOM, zoom));
+        if (mClusteredItems[zoom] == null) {
+            mClusteredItems[zoom] = buildClusteredItems(mClusterer.getClusters(zoom));
+        }
+        
+        // Indexes change with the clusters, an open balloon would point at the wrong item
+        hideAllBalloons();
+        setFocus(null);
+        mClusterZoom = zoom;
+        mSourceItems = mClusteredItems[zoom];
+        refresh();
+    }
+    
+    private List<PurdueMapOverlayItem> buildClusteredItems(Cluster[] clusters) {
+        List<PurdueMapOverlayItem> items = new ArrayList<PurdueMapOverlayItem>(clusters.length);
+        for (Cluster cluster : clusters) {
+            if (cluster.getCount() == 1) {
+                items.add(mOverlayItems.get(cluster.getFirstPoint()));
+                continue;
+            }
+            
+            PurdueMapClusterItem item = new PurdueMapClusterItem(
+                    new GeoPoint(cluster.getLatitudeE6(), cluster.getLongitudeE6()), 
+                    mContext.getString(R.string.cluster_title, cluster.getCount()), 
+                    mContext.getString(R.string.cluster_snippet), 
+                    cluster.getCount(), 
+                    cluster.getMaxLatitudeE6() - cluster.getMinLatitudeE6(), 
+                    cluster.getMaxLongitudeE6() - cluster.getMinLongitudeE6());
+            item.setMarker(getBadge(cluster.getCount()));
+            items.add(item);
+        }
+        return items;
+    }
+    
+    private Drawable getBadge(int count) {
+        Drawable badge = mBadges.get(count);
+        if (badge == null) {
+            badge = new CountBadgeDrawable(count, mContext.getResources().getDisplayMetrics().density);
+            mBadges.put(count, badge);
+        }
+        return badge;
+    }
+    
+    private void stopClustering() {
+        mClusterer = null;
+        for (int i = 0; i < mClusteredItems.length; i++) {
+            mClusteredItems[i] = null;
+        }
+        mClusterZoom = -1;
+        mSourceItems = mOverlayItems;
     }
 
 }
@@ -0,0 +1,130 @@
+package com.jamesma.purdue.maps;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
+
+/**
+ * Draws a walking route on the map as a line through its points.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class RouteOverlay extends Overlay {
+
+    private static final int LINE_COLOR = 0xC01E6FD9;
+
+    private int[] mLatitudesE6;
+    private int[] mLongitudesE6;
+    private GeoPoint[] mPoints;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // Reused while drawing
+    private final Path mPath = new Path();
+    private final Point mPoint = new Point();
+
+    /**
+     * @param density
+     *            The display density, the line is 5dp wide
+     */
+    public RouteOverlay(float density) {
+        mPaint.setColor(LINE_COLOR);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(5 * density);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
+    }
+
+    /**
+     * @param latitudesE6
+     *            Latitude of each point along the route, from the start
+     * @param longitudesE6
+     *            Longitude of each point, in the same order
+     */
+    public void setRoute(int[] latitudesE6, int[] longitudesE6) {
+        mLatitudesE6 = latitudesE6;
+        mLongitudesE6 = longitudesE6;
+        mPoints = new GeoPoint[latitudesE6.length];
+        for (int i = 0; i < mPoints.length; i++) {
+            mPoints[i] = new GeoPoint(latitudesE6[i], longitudesE6[i]);
+        }
+    }
+
+    public boolean hasRoute() {
+        return mPoints != null;
+    }
+
+    public void clearRoute() {
+        mLatitudesE6 = null;
+        mLongitudesE6 = null;
+        mPoints = null;
+    }
+
+    /**
+     * @return The latitude span of the route, for zooming to it
+     */
+    public int getLatSpanE6() {
+        return getSpan(mLatitudesE6);
+    }
+
+    /**
+     * @return The longitude span of the route, for zooming to it
+     */
+    public int getLngSpanE6() {
+        return getSpan(mLongitudesE6);
+    }
+
+    /**
+     * @return The middle of the route's bounding box
+     */
+    public GeoPoint getCenter() {
+        return new GeoPoint(getMiddle(mLatitudesE6), getMiddle(mLongitudesE6));
+    }
+
+    private static int getSpan(int[] values) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max - min;
+    }
+
+    private static int getMiddle(int[] values) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return (min + max) / 2;
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        GeoPoint[] points = mPoints;
+        if (shadow || points == null || points.length < 2) {
+            return;
+        }
+
+        Projection projection = mapView.getProjection();
+        mPath.rewind();
+        for (int i = 0; i < points.length; i++) {
+            projection.toPixels(points[i], mPoint);
+            if (i == 0) {
+                mPath.moveTo(mPoint.x, mPoint.y);
+            } else {
+                mPath.lineTo(mPoint.x, mPoint.y);
+            }
+        }
+        canvas.drawPath(mPath, mPaint);
+    }
+
+}
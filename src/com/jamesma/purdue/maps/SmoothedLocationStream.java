@@ -0,0 +1,175 @@
+package com.jamesma.purdue.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.jamesma.purdue.maps.geo.GeoMath;
+import com.jamesma.purdue.maps.geo.KalmanLocationFilter;
+
+/**
+ * A stream of the user's location with the noise of raw fixes smoothed out, see {@link KalmanLocationFilter}.
+ *
+ * Listeners only hear about the location once it has moved by the distance they asked for since
+ * they last heard, so work that follows the user isn't redone for every jittery fix. The providers
+ * are listened to while there is a listener, on the main looper. Only use from the main thread.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class SmoothedLocationStream implements LocationListener {
+
+    // Raw fixes are asked for about this often
+    private static final long MIN_UPDATE_MILLIS = 1000;
+    // How erratically someone on foot moves, in (m/s^2)^2
+    private static final double WALKING_ACCELERATION_VARIANCE = 0.5;
+    // Assumed accuracy of fixes that don't report one, so they count for little
+    private static final float DEFAULT_ACCURACY_METERS = 500;
+
+    private static SmoothedLocationStream sInstance;
+
+    private final LocationManager mLocationManager;
+    private final KalmanLocationFilter mFilter = new KalmanLocationFilter(WALKING_ACCELERATION_VARIANCE);
+    private final List<Subscription> mSubscriptions = new ArrayList<Subscription>();
+
+    /**
+     * Told the smoothed location once it has moved far enough.
+     */
+    public interface OnSmoothedLocationListener {
+        /**
+         * @param accuracyMeters
+         *            The standard deviation of the estimate's error
+         * @param timeMillis
+         *            When the last fix folded into the estimate was taken
+         */
+        void onSmoothedLocationChanged(int latE6, int lngE6, float accuracyMeters, long timeMillis);
+    }
+
+    private static class Subscription {
+        final OnSmoothedLocationListener listener;
+        final float minDistanceMeters;
+        // Where the listener last heard the location was, valid once notified
+        boolean notified = false;
+        int latE6;
+        int lngE6;
+
+        Subscription(OnSmoothedLocationListener listener, float minDistanceMeters) {
+            this.listener = listener;
+            this.minDistanceMeters = minDistanceMeters;
+        }
+    }
+
+    private SmoothedLocationStream(Context context) {
+        mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+    }
+
+    public static synchronized SmoothedLocationStream getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SmoothedLocationStream(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start telling a listener the smoothed location. If there is an estimate already the listener hears it at once.
+     *
+     * @param listener
+     * @param minDistanceMeters
+     *            How far the location must move before the listener hears about it again
+     */
+    public void addListener(OnSmoothedLocationListener listener, float minDistanceMeters) {
+        if (mSubscriptions.isEmpty()) {
+            Looper looper = Looper.getMainLooper();
+            if (mLocationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+                mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, MIN_UPDATE_MILLIS, 0, this, looper);
+            }
+            if (mLocationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
+                mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, MIN_UPDATE_MILLIS, 0, this, looper);
+            }
+        }
+
+        Subscription subscription = new Subscription(listener, minDistanceMeters);
+        mSubscriptions.add(subscription);
+        if (mFilter.hasEstimate()) {
+            deliver(subscription, mFilter.getLatitudeE6(), mFilter.getLongitudeE6());
+        }
+    }
+
+    /**
+     * Stop telling a listener the smoothed location, the providers are let go after the last one.
+     *
+     * @param listener
+     */
+    public void removeListener(OnSmoothedLocationListener listener) {
+        for (int i = mSubscriptions.size() - 1; i >= 0; i--) {
+            if (mSubscriptions.get(i).listener == listener) {
+                mSubscriptions.remove(i);
+            }
+        }
+        if (mSubscriptions.isEmpty()) {
+            mLocationManager.removeUpdates(this);
+        }
+    }
+
+    /**
+     * @return Whether there has been a fix to smooth
+     */
+    public boolean hasEstimate() {
+        return mFilter.hasEstimate();
+    }
+
+    public int getLatitudeE6() {
+        return mFilter.getLatitudeE6();
+    }
+
+    public int getLongitudeE6() {
+        return mFilter.getLongitudeE6();
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : DEFAULT_ACCURACY_METERS;
+        mFilter.update(
+                (int) (location.getLatitude() * 1e6),
+                (int) (location.getLongitude() * 1e6),
+                accuracy,
+                location.getTime());
+
+        int latE6 = mFilter.getLatitudeE6();
+        int lngE6 = mFilter.getLongitudeE6();
+        // Backwards, so listeners may remove themselves when told
+        for (int i = mSubscriptions.size() - 1; i >= 0; i--) {
+            if (i >= mSubscriptions.size()) {
+                continue;
+            }
+            Subscription subscription = mSubscriptions.get(i);
+            if (!subscription.notified || GeoMath.distanceMeters(
+                    subscription.latE6, subscription.lngE6, latE6, lngE6) >= subscription.minDistanceMeters) {
+                deliver(subscription, latE6, lngE6);
+            }
+        }
+    }
+
+    private void deliver(Subscription subscription, int latE6, int lngE6) {
+        subscription.notified = true;
+        subscription.latE6 = latE6;
+        subscription.lngE6 = lngE6;
+        subscription.listener.onSmoothedLocationChanged(latE6, lngE6, mFilter.getAccuracyMeters(), mFilter.getTimeMillis());
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+    @Override
+    public void onProviderEnabled(String provider) {}
+
+    @Override
+    public void onProviderDisabled(String provider) {}
+
+}
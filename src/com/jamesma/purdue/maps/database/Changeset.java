@@ -0,0 +1,208 @@
+package com.jamesma.purdue.maps.database;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Base64;
+
+import com.jamesma.purdue.maps.search.CampusLocation;
+
+/**
+ * The locations inserted, updated and deleted between two data versions of the database, as
+ * applied by {@link DatabaseHelper#applyChangeset(Changeset)}.
+ *
+ * A changeset travels as a signed envelope, so a changeset that wasn't made by whoever holds the
+ * private key is never applied:
+ * <pre>
+ * { "payload": "&lt;the changeset, as JSON text&gt;", "signature": "&lt;base64 SHA256withRSA of the payload's UTF-8 bytes&gt;" }
+ * </pre>
+ * and the payload is:
+ * <pre>
+ * { "base_version": 3, "version": 4,
+ *   "upserts": [ { "id": 7, "name": "...", "abbr": "...", "lat": 40.4237, "lng": -86.9212, "addr": "...",
+ *                  "footprint": [ [40.4236, -86.9213], ... ] } ],
+ *   "deletes": [ 12 ] }
+ * </pre>
+ * An upsert replaces the whole location, its footprint only if it has one. Missing text fields are null.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class Changeset {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private final int baseVersion;
+    private final int version;
+    private final List<CampusLocation> upserts;
+    // Outline of each upserted location that has a new one, latitude and longitude of each vertex in turn
+    private final Map<Integer, int[]> footprints;
+    private final int[] deletes;
+
+    private Changeset(int baseVersion, int version, List<CampusLocation> upserts, Map<Integer, int[]> footprints,
+            int[] deletes) {
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.upserts = upserts;
+        this.footprints = footprints;
+        this.deletes = deletes;
+    }
+
+    /**
+     * Verify a signed envelope and read the changeset inside it.
+     *
+     * @param envelope
+     *            The envelope as received
+     * @param publicKey
+     *            The key the payload must be signed with, base64 of its X.509 encoding
+     * @return The changeset
+     * @throws GeneralSecurityException
+     *             If the signature doesn't match
+     * @throws JSONException
+     *             If the envelope or the changeset is malformed
+     */
+    public static Changeset parse(String envelope, String publicKey) throws GeneralSecurityException, JSONException {
+        JSONObject json = new JSONObject(envelope);
+        String payload = json.getString("payload");
+        if (!verify(payload, json.getString("signature"), publicKey)) {
+            throw new GeneralSecurityException("Changeset signature mismatch");
+        }
+        return parsePayload(new JSONObject(payload));
+    }
+
+    private static boolean verify(String payload, String signature, String publicKey) throws GeneralSecurityException {
+        PublicKey key = KeyFactory.getInstance("RSA").generatePublic(
+                new X509EncodedKeySpec(Base64.decode(publicKey, Base64.DEFAULT)));
+        Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+        verifier.initVerify(key);
+        try {
+            verifier.update(payload.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        try {
+            return verifier.verify(Base64.decode(signature, Base64.DEFAULT));
+        } catch (IllegalArgumentException e) {
+            // Not even base64
+            return false;
+        }
+    }
+
+    private static Changeset parsePayload(JSONObject json) throws JSONException {
+        int baseVersion = json.getInt("base_version");
+        int version = json.getInt("version");
+        if (version <= baseVersion) {
+            throw new JSONException("Changeset from version " + baseVersion + " to " + version);
+        }
+
+        JSONArray upsertsJson = json.optJSONArray("upserts");
+        int upsertCount = upsertsJson == null ? 0 : upsertsJson.length();
+        List<CampusLocation> upserts = new ArrayList<CampusLocation>(upsertCount);
+        Map<Integer, int[]> footprints = new HashMap<Integer, int[]>();
+        for (int i = 0; i < upsertCount; i++) {
+            JSONObject location = upsertsJson.getJSONObject(i);
+            int id = location.getInt("id");
+            String name = getText(location, "name");
+            if (name == null) {
+                throw new JSONException("Location " + id + " has no name");
+            }
+            String abbr = getText(location, "abbr");
+            String addr = getText(location, "addr");
+            upserts.add(new CampusLocation(id, name, abbr,
+                    toE6(location.getDouble("lat")), toE6(location.getDouble("lng")),
+                    addr, CampusLocation.getSubtitle(abbr, addr)));
+
+            JSONArray footprint = location.optJSONArray("footprint");
+            if (footprint != null) {
+                if (footprint.length() < 3) {
+                    throw new JSONException("Footprint of location " + id + " has fewer than 3 vertices");
+                }
+                int[] vertices = new int[footprint.length() * 2];
+                for (int v = 0; v < footprint.length(); v++) {
+                    JSONArray vertex = footprint.getJSONArray(v);
+                    vertices[2 * v] = toE6(vertex.getDouble(0));
+                    vertices[2 * v + 1] = toE6(vertex.getDouble(1));
+                }
+                footprints.put(id, vertices);
+            }
+        }
+
+        JSONArray deletesJson = json.optJSONArray("deletes");
+        int[] deletes = new int[deletesJson == null ? 0 : deletesJson.length()];
+        for (int i = 0; i < deletes.length; i++) {
+            deletes[i] = deletesJson.getInt(i);
+        }
+
+        return new Changeset(baseVersion, version, upserts, footprints, deletes);
+    }
+
+    /**
+     * @return The trimmed text of a field, or null if it is missing, null or blank
+     */
+    private static String getText(JSONObject json, String name) {
+        if (json.isNull(name)) {
+            return null;
+        }
+        String text = json.optString(name).trim();
+        return text.length() == 0 ? null : text;
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1e6);
+    }
+
+    /**
+     * @return The data version the changeset applies to
+     */
+    public int getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * @return The data version once applied
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The locations to insert or replace
+     */
+    public List<CampusLocation> getUpserts() {
+        return upserts;
+    }
+
+    /**
+     * @return The new outline of an upserted location, latitude and longitude of each vertex in
+     *         turn, or null to keep the one it has
+     */
+    public int[] getFootprint(int id) {
+        return footprints.get(id);
+    }
+
+    /**
+     * @return The ids of the locations to delete, with their footprints
+     */
+    public int[] getDeletes() {
+        return deletes;
+    }
+
+    @Override
+    public String toString() {
+        return "Changeset[" + baseVersion + " -> " + version + ", upserts=" + upserts.size()
+                + ", deletes=" + deletes.length + "]";
+    }
+
+}
@@ -1,21 +1,33 @@
 package com.jamesma.purdue.maps.database;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.SearchManager;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
-import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
+import android.util.Log;
+
+import com.jamesma.purdue.maps.route.WalkwayGraph;
+import com.jamesma.purdue.maps.search.CampusLocation;
 
 /**
  * This class helps open, create, and upgrade the database file.
@@ -26,32 +38,72 @@ import android.provider.BaseColumns;
  * 
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
+    private static final String TAG = "DatabaseHelper";
 
-    // Android default system path of our application database
-    private static final String DB_PATH = "/data/data/com.jamesma.purdue.maps/databases/";
     private static final String DB_NAME = "purdue_locations.db";
-    private static final String TABLE_NAME = "purdue_campus_locations";
+    // Bump whenever assets/purdue_locations.db changes, must match the --version it is compiled with
+    private static final int DB_VERSION = 7;
+    private static final int HEADER_USER_VERSION_OFFSET = 60;
+    private static final long COPY_CHUNK_SIZE = 64 * 1024;
+    private static final String TABLE_NAME = WordMatchQueries.TABLE_NAME;
+    private static final String WALKWAY_NODES_TABLE = "walkway_nodes";
+    private static final String WALKWAY_EDGES_TABLE = "walkway_edges";
+    private static final String FOOTPRINTS_TABLE = "building_footprints";
+    // Key-value pairs describing the data, separate from the schema version in the header
+    private static final String METADATA_TABLE = "metadata";
+    // Revision of the data, moved forward by every changeset applied
+    private static final String DATA_VERSION_KEY = "data_version";
     
-    private static final String[] COLUMN_NAMES = {
+    /**
+     * Columns of a Cursor conforming to Android custom suggestion standards.
+     * 
+     * @see http://developer.android.com/guide/topics/search/adding-custom-suggestions.html#SuggestionTable
+     */
+    static final String[] SUGGESTION_COLUMNS = {
         BaseColumns._ID,
         SearchManager.SUGGEST_COLUMN_TEXT_1,
         SearchManager.SUGGEST_COLUMN_TEXT_2,
-        SearchManager.SUGGEST_COLUMN_INTENT_DATA,
-        SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA
+        SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID
     };
 
     public static final String LOC_NAME = "name";
     public static final String ABBR = "abbr";
-    public static final String COORDS = "coords";
+    // Coordinates in microdegrees, as used by GeoPoint
+    public static final String LAT_E6 = "lat_e6";
+    public static final String LNG_E6 = "lng_e6";
     public static final String ADDR = "addr";
-    public static final String DATA_SEPARATOR = "%";
+    // Second line of a suggestion, precomputed when the database is built
+    public static final String SUBTITLE = "subtitle";
+    // Lowercased name and abbreviation, see WordMatchQueries#getSearchKey(String, String)
+    public static final String SEARCH_KEY = "search_key";
+    
+    public static final String[] LOCATION_COLUMNS = { BaseColumns._ID, LOC_NAME, ABBR, LAT_E6, LNG_E6, ADDR, SUBTITLE };
+    
+    // Id of the location a footprint vertex belongs to
+    public static final String FOOTPRINT_LOC_ID = "loc_id";
+    // Position of a vertex around its footprint
+    public static final String FOOTPRINT_VERTEX = "vertex";
+    
+    public static final String[] FOOTPRINT_COLUMNS = { FOOTPRINT_LOC_ID, LAT_E6, LNG_E6 };
+    
+    // Well under the 999 arguments SQLite binds to a statement
+    private static final int MAX_BOUND_IDS = 500;
+    
+    /**
+     * All that {@link WordMatcher} reads of every match of a query. The other columns are only read 
+     * for the best matches.
+     */
+    private static final String[] CANDIDATE_COLUMNS = { BaseColumns._ID, SEARCH_KEY, LAT_E6, LNG_E6 };
     
     private SQLiteDatabase sqliteDB;
+    
+    private final WordMatchQueries wordMatchQueries = new WordMatchQueries(BaseColumns._ID, SEARCH_KEY);
+    private WordMatcher wordMatcher;
 
     private final Context mContext;
 
     public DatabaseHelper(Context context) {
-        super(context, DB_NAME, null, 1);
+        super(context, DB_NAME, null, DB_VERSION);
         this.mContext = context;
     }
 
@@ -74,84 +126,109 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Creates an empty database on the system and rewrites it with your own
-     * database.
+     * Installs our own database into the default system path, unless the installed copy is already
+     * the version bundled with the application.
      * 
      * @throws IOException
      */
     public void createDatabase() throws IOException {
-        boolean dbExists = checkDatabase();
+        File dbFile = mContext.getDatabasePath(DB_NAME);
 
-        if (dbExists) {
-            // Do nothing - database already exists
+        if (getInstalledVersion(dbFile) == DB_VERSION) {
+            // Do nothing - database is already up to date
         } else {
-            // By calling this method an empty database will be created into the
-            // default system path of our application so we are going to be able
-            // to overwrite the database with our database.
-            this.getReadableDatabase();
-
-            try {
-                copyDatabase();
-            } catch (IOException e) {
-                throw new Error("Error copying database");
-            }
+            copyDatabase(dbFile);
         }
     }
 
     /**
-     * Check if the database already exists to avoid re-copying the file each
-     * time the user opens the application.
+     * Read the user version stamped into the header of the installed database file, avoiding 
+     * opening a full SQLite connection just to check if the database is there.
      * 
-     * @return true if it exists, false if not
+     * @see http://www.sqlite.org/fileformat2.html#database_header
+     * @param dbFile
+     * @return The installed version, or -1 if the database doesn't exist yet
      */
-    private boolean checkDatabase() {
-        SQLiteDatabase checkDB = null;
-
-        try {
-            String dbPath = DB_PATH + DB_NAME;
-            checkDB = SQLiteDatabase.openDatabase(
-                    dbPath, 
-                    null,
-                    SQLiteDatabase.NO_LOCALIZED_COLLATORS   // Open without support for localized collators. setLocate() will do nothing.
-                    );
-        } catch (SQLiteException e) {
-            // Do nothing - database doesn't exist yet
+    private static int getInstalledVersion(File dbFile) {
+        if (dbFile.length() < HEADER_USER_VERSION_OFFSET + 4) {
+            return -1;
         }
-
-        if (checkDB != null) {
-            checkDB.close();
+        
+        try {
+            RandomAccessFile file = new RandomAccessFile(dbFile, "r");
+            try {
+                file.seek(HEADER_USER_VERSION_OFFSET);
+                return file.readInt();  // Big-endian, like the header
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return -1;
         }
-
-        return checkDB != null ? true : false;
     }
 
     /**
-     * Copies our database from our local assets/ folder to the newly created
-     * empty database in the system/ folder, from where it can be accessed and
-     * handled.
+     * Copies our database from our local assets/ folder into the system/ folder, from where it
+     * can be accessed and handled. The copy is written next to the database and renamed over it 
+     * once complete, so an interrupted copy never looks installed.
      * 
+     * @param dbFile
      * @throws IOException
      */
-    private void copyDatabase() throws IOException {
-        // Open your local database as the input stream
-        InputStream inputStream = mContext.getAssets().open(DB_NAME);
+    private void copyDatabase(File dbFile) throws IOException {
+        File dbDir = dbFile.getParentFile();
+        if (!dbDir.isDirectory() && !dbDir.mkdirs()) {
+            throw new IOException("Unable to create " + dbDir);
+        }
+        
+        File tmpFile = new File(dbDir, DB_NAME + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
         try {
-            // Path to the newly created empty database
-            String outFileName = DB_PATH + DB_NAME;
-            OutputStream outputStream = new FileOutputStream(outFileName);
+            FileChannel outputChannel = outputStream.getChannel();
+            
+            AssetFileDescriptor assetFd = null;
             try {
-                // Transfer bytes from input file to output file
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, len);
+                assetFd = mContext.getAssets().openFd(DB_NAME);
+            } catch (FileNotFoundException e) {
+                // The asset was compressed into the APK, it can only be streamed
+            }
+            
+            if (assetFd != null) {
+                // Stored uncompressed, let the kernel copy the bytes straight out of the APK
+                try {
+                    FileChannel inputChannel = new FileInputStream(assetFd.getFileDescriptor()).getChannel();
+                    long start = assetFd.getStartOffset();
+                    long length = assetFd.getLength();
+                    long position = 0;
+                    while (position < length) {
+                        position += inputChannel.transferTo(start + position, length - position, outputChannel);
+                    }
+                } finally {
+                    assetFd.close();
+                }
+            } else {
+                ReadableByteChannel inputChannel = Channels.newChannel(mContext.getAssets().open(DB_NAME));
+                try {
+                    long position = 0;
+                    long transferred;
+                    while ((transferred = outputChannel.transferFrom(inputChannel, position, COPY_CHUNK_SIZE)) > 0) {
+                        position += transferred;
+                    }
+                } finally {
+                    inputChannel.close();
                 }
-                outputStream.flush();
-            } finally {
-                outputStream.close();
             }
+            
+            outputChannel.force(false);
         } finally {
-            inputStream.close();
+            outputStream.close();
+        }
+        
+        // A journal left behind by the previous version would be rolled back into the new copy
+        new File(dbDir, DB_NAME + "-journal").delete();
+        if (!tmpFile.renameTo(dbFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to install " + dbFile);
         }
     }
 
@@ -161,104 +238,415 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @throws SQLiteException
      */
     public void openDatabase() throws SQLiteException {
-        String dbPath = DB_PATH + DB_NAME;
+        String dbPath = mContext.getDatabasePath(DB_NAME).getPath();
         sqliteDB = SQLiteDatabase.openDatabase(
                 dbPath, 
                 null,
                 SQLiteDatabase.NO_LOCALIZED_COLLATORS   // Open without support for localized collators. setLocate() will do nothing.
                 );
+        wordMatcher = new WordMatcher(new SQLiteWordMatchSource(sqliteDB), wordMatchQueries, CANDIDATE_COLUMNS);
     }
-
+    
+    /**
+     * @return The revision of the data, that the next changeset must apply to
+     */
+    public int getDataVersion() {
+        Cursor cursor = sqliteDB.query(
+                METADATA_TABLE, 
+                new String[] { "value" }, 
+                "key = ?", 
+                new String[] { DATA_VERSION_KEY }, 
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+    
     /**
-     * Returns a Cursor over all words that match the given query
+     * Applies a changeset to the installed database in a single transaction: either every 
+     * location, search key, n-gram and footprint it touches is updated along with the data 
+     * version, or on any failure nothing is. Only the rows of the changed locations are written, 
+     * the indexes are updated along with them.
      * 
-     * @param query
-     *            The string to search for
-     * @param columns
-     *            The columns to include, if null then all are included
-     * @return Cursor over all words that match, or null if none found.
+     * @param changeset
+     * @return False if the changeset doesn't apply to the current data version, in which case nothing changed
+     * @throws SQLiteException
+     *             If the changeset couldn't be written, in which case nothing changed
      */
-    public Cursor getWordMatches(String query, String[] columns) {
-        // Search over location names and abbreviations
-        String selection = 
-                LOC_NAME + " LIKE '%" + query + "%'" + " OR " + 
-                ABBR     + " LIKE '%" + query + "%'";
-
-        return query(selection, columns);
+    public synchronized boolean applyChangeset(Changeset changeset) throws SQLiteException {
+        sqliteDB.beginTransaction();
+        try {
+            // Checked inside the transaction, so two updates can't both apply to the same version
+            if (getDataVersion() != changeset.getBaseVersion()) {
+                return false;
+            }
+            
+            SQLiteStatement deleteLocation = sqliteDB.compileStatement(
+                    "DELETE FROM " + TABLE_NAME + " WHERE " + BaseColumns._ID + " = ?");
+            SQLiteStatement deleteGrams = sqliteDB.compileStatement(
+                    "DELETE FROM " + WordMatchQueries.GRAM_TABLE_NAME + " WHERE " + WordMatchQueries.GRAM_LOC_ID + " = ?");
+            SQLiteStatement deleteFootprint = sqliteDB.compileStatement(
+                    "DELETE FROM " + FOOTPRINTS_TABLE + " WHERE " + FOOTPRINT_LOC_ID + " = ?");
+            SQLiteStatement insertLocation = sqliteDB.compileStatement(
+                    "INSERT OR REPLACE INTO " + TABLE_NAME + " (" + BaseColumns._ID + ", " + LOC_NAME + ", " + ABBR + ", " 
+                    + LAT_E6 + ", " + LNG_E6 + ", " + ADDR + ", " + SUBTITLE + ", " + SEARCH_KEY + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            SQLiteStatement insertGram = sqliteDB.compileStatement(
+                    "INSERT INTO " + WordMatchQueries.GRAM_TABLE_NAME + " (" + WordMatchQueries.GRAM + ", " 
+                    + WordMatchQueries.GRAM_LOC_ID + ") VALUES (?, ?)");
+            SQLiteStatement insertVertex = sqliteDB.compileStatement(
+                    "INSERT INTO " + FOOTPRINTS_TABLE + " (" + FOOTPRINT_LOC_ID + ", " + FOOTPRINT_VERTEX + ", " 
+                    + LAT_E6 + ", " + LNG_E6 + ") VALUES (?, ?, ?, ?)");
+            try {
+                for (int id : changeset.getDeletes()) {
+                    bindAndExecute(deleteLocation, id);
+                    bindAndExecute(deleteGrams, id);
+                    bindAndExecute(deleteFootprint, id);
+                }
+                
+                for (CampusLocation location : changeset.getUpserts()) {
+                    int id = location.getId();
+                    String searchKey = WordMatchQueries.getSearchKey(location.getName(), location.getAbbreviation());
+                    insertLocation.bindLong(1, id);
+                    bindText(insertLocation, 2, location.getName());
+                    bindText(insertLocation, 3, location.getAbbreviation());
+                    insertLocation.bindLong(4, location.getLatitudeE6());
+                    insertLocation.bindLong(5, location.getLongitudeE6());
+                    bindText(insertLocation, 6, location.getAddress());
+                    bindText(insertLocation, 7, location.getSubtitle());
+                    bindText(insertLocation, 8, searchKey);
+                    insertLocation.execute();
+                    
+                    // Replace the location's postings, the rest of the index is untouched
+                    bindAndExecute(deleteGrams, id);
+                    for (String gram : WordMatchQueries.getIndexGrams(searchKey)) {
+                        insertGram.bindString(1, gram);
+                        insertGram.bindLong(2, id);
+                        insertGram.execute();
+                    }
+                    
+                    int[] footprint = changeset.getFootprint(id);
+                    if (footprint != null) {
+                        bindAndExecute(deleteFootprint, id);
+                        for (int v = 0; v < footprint.length / 2; v++) {
+                            insertVertex.bindLong(1, id);
+                            insertVertex.bindLong(2, v);
+                            insertVertex.bindLong(3, footprint[2 * v]);
+                            insertVertex.bindLong(4, footprint[2 * v + 1]);
+                            insertVertex.execute();
+                        }
+                    }
+                }
+                
+                ContentValues values = new ContentValues();
+                values.put("value", Integer.toString(changeset.getVersion()));
+                sqliteDB.update(METADATA_TABLE, values, "key = ?", new String[] { DATA_VERSION_KEY });
+            } finally {
+                deleteLocation.close();
+                deleteGrams.close();
+                deleteFootprint.close();
+                insertLocation.close();
+                insertGram.close();
+                insertVertex.close();
+            }
+            
+            sqliteDB.setTransactionSuccessful();
+        } finally {
+            sqliteDB.endTransaction();
+        }
+        
+        // Cached matches may include deleted or outdated locations
+        wordMatcher.clearCache();
+        return true;
     }
-
+    
+    private static void bindAndExecute(SQLiteStatement statement, long id) {
+        statement.bindLong(1, id);
+        statement.execute();
+    }
+    
+    private static void bindText(SQLiteStatement statement, int index, String text) {
+        if (text == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, text);
+        }
+    }
+    
     /**
-     * Performs a database query.
+     * Reads every location into memory.
      * 
-     * @param selection
-     *            The selection clause
-     * @param columns
-     *            The columns to return
-     * @return A Cursor over all rows matching the query
+     * @return All locations, in rowid order
      */
-    private Cursor query(String selection, String[] columns) {
+    public List<CampusLocation> getAllLocations() {
+        Cursor cursor = sqliteDB.query(
+                TABLE_NAME, 
+                LOCATION_COLUMNS, 
+                null, null, null, null, 
+                BaseColumns._ID);
         
-        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
-        builder.setTables(TABLE_NAME);
-
-        Cursor cursor = builder.query(
-                sqliteDB,       // SQLiteDatabase
-                columns,        // columns
-                selection,      // selection
-                null,           // selectionArgs
-                null,           // groupBy
-                null,           // having
-                null            // sortOrder
-                );
+        return readLocations(cursor);
+    }
+    
+    /**
+     * Returns a Cursor over a single location.
+     * 
+     * @param id
+     *            The rowid of the location
+     * @return Cursor over {@link #LOCATION_COLUMNS} of the location, empty if there is none
+     */
+    public Cursor getLocation(long id) {
+        return sqliteDB.query(
+                TABLE_NAME, 
+                LOCATION_COLUMNS, 
+                BaseColumns._ID + " = ?", 
+                new String[] { Long.toString(id) }, 
+                null, null, null);
+    }
+    
+    /**
+     * Returns the outlines of the buildings.
+     * 
+     * @return Cursor over {@link #FOOTPRINT_COLUMNS}, one row per vertex, grouped by location and 
+     *         in order around each outline
+     */
+    public Cursor getFootprints() {
+        return sqliteDB.query(
+                FOOTPRINTS_TABLE, 
+                FOOTPRINT_COLUMNS, 
+                null, null, null, null, 
+                FOOTPRINT_LOC_ID + ", " + FOOTPRINT_VERTEX);
+    }
+    
+    /**
+     * Reads the campus walkways into memory for routing.
+     * 
+     * @return The walkway graph, empty if the database has no walkways
+     */
+    public WalkwayGraph getWalkwayGraph() {
+        Cursor nodes = sqliteDB.query(
+                WALKWAY_NODES_TABLE, 
+                new String[] { BaseColumns._ID, LAT_E6, LNG_E6 }, 
+                null, null, null, null, 
+                BaseColumns._ID);
+        int[] nodeIds;
+        int[] latitudesE6;
+        int[] longitudesE6;
+        try {
+            nodeIds = new int[nodes.getCount()];
+            latitudesE6 = new int[nodeIds.length];
+            longitudesE6 = new int[nodeIds.length];
+            for (int i = 0; nodes.moveToNext(); i++) {
+                nodeIds[i] = nodes.getInt(0);
+                latitudesE6[i] = nodes.getInt(1);
+                longitudesE6[i] = nodes.getInt(2);
+            }
+        } finally {
+            nodes.close();
+        }
         
-        if (cursor == null) {
-            return null;
-        } else if (!cursor.moveToFirst()) {
+        Cursor edges = sqliteDB.query(
+                WALKWAY_EDGES_TABLE, 
+                new String[] { "from_node", "to_node", "length_m" }, 
+                null, null, null, null, null);
+        int[] edgeFrom;
+        int[] edgeTo;
+        float[] lengths;
+        try {
+            edgeFrom = new int[edges.getCount()];
+            edgeTo = new int[edgeFrom.length];
+            lengths = new float[edgeFrom.length];
+            for (int i = 0; edges.moveToNext(); i++) {
+                edgeFrom[i] = edges.getInt(0);
+                edgeTo[i] = edges.getInt(1);
+                lengths[i] = edges.getFloat(2);
+            }
+        } finally {
+            edges.close();
+        }
+        
+        return new WalkwayGraph(nodeIds, latitudesE6, longitudesE6, edgeFrom, edgeTo, lengths);
+    }
+    
+    /**
+     * Reads the rows of a Cursor over {@link #LOCATION_COLUMNS} and closes it.
+     * 
+     * @param cursor
+     * @return The locations, in Cursor order
+     */
+    private static List<CampusLocation> readLocations(Cursor cursor) {
+        List<CampusLocation> locations = new ArrayList<CampusLocation>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                locations.add(new CampusLocation(
+                        cursor.getInt(0), 
+                        cursor.getString(1), 
+                        cursor.getString(2), 
+                        cursor.getInt(3), 
+                        cursor.getInt(4), 
+                        cursor.getString(5), 
+                        cursor.getString(6)));
+            }
+        } finally {
             cursor.close();
-            return null;
         }
+        
+        return locations;
+    }
 
-        return convertCursorToMatrixCursor(cursor);
+    /**
+     * Returns a suggestion Cursor over the best ranked words that match the given query.
+     * Queries extending a recent query are narrowed down from its matches without touching the database.
+     * 
+     * @see WordMatcher#getBestMatches(String, int)
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of rows to return
+     * @return Cursor over the best words that match best first, or null if none found.
+     */
+    public Cursor getWordMatches(String query, int maxResults) {
+        return getRankedLocations(getBestMatches(query, maxResults), SUGGESTION_COLUMNS);
     }
     
     /**
-     * Construct a Cursor conforming to Android custom suggestion standards.
+     * Returns every location that matches the query, as for a full search rather than suggestions.
      * 
-     * @see http://developer.android.com/guide/topics/search/adding-custom-suggestions.html#SuggestionTable
-     * @param cursor
-     * @return The constructed Cursor
+     * @param query
+     *            The lowercased string to search for
+     * @param columns
+     *            Any of {@link #LOCATION_COLUMNS}
+     * @return Cursor over all matching locations best first, or null if none found.
      */
-    private Cursor convertCursorToMatrixCursor(Cursor cursor) {
-        int id_index        = cursor.getColumnIndex(BaseColumns._ID);
-        int loc_name_index  = cursor.getColumnIndex(LOC_NAME);
-        int abbr_index      = cursor.getColumnIndex(ABBR);
-        int coords_index    = cursor.getColumnIndex(COORDS);
-        int addr_index      = cursor.getColumnIndex(ADDR);
+    public Cursor getAllWordMatches(String query, String[] columns) {
+        return getRankedLocations(getBestMatches(query, Integer.MAX_VALUE), columns);
+    }
+    
+    /**
+     * Returns the locations that match the query nearest to a point.
+     * 
+     * @see WordMatcher#getNearestMatches(String, int, int, int)
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of rows to return
+     * @param columns
+     *            Any of {@link #LOCATION_COLUMNS} and {@link #SUGGESTION_COLUMNS}
+     * @return Cursor over the nearest matching locations nearest first, or null if none found.
+     */
+    public Cursor getNearestWordMatches(String query, int maxResults, int latE6, int lngE6, String[] columns) {
+        return getRankedLocations(getNearestMatches(query, maxResults, latE6, lngE6), columns);
+    }
+    
+    /**
+     * Ranks the matches of a query. Excludes {@link #applyChangeset(Changeset)}, so matches read 
+     * before a changeset aren't cached after it.
+     */
+    private synchronized int[] getBestMatches(String query, int maxResults) {
+        int[] ids = wordMatcher.getBestMatches(query, maxResults);
+        logQueryCache();
+        return ids;
+    }
+    
+    /**
+     * Ranks the matches of a query by distance, excluding {@link #applyChangeset(Changeset)} likewise.
+     */
+    private synchronized int[] getNearestMatches(String query, int maxResults, int latE6, int lngE6) {
+        int[] ids = wordMatcher.getNearestMatches(query, maxResults, latE6, lngE6);
+        logQueryCache();
+        return ids;
+    }
+    
+    private void logQueryCache() {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, wordMatcher.getQueryCache().toString());
+        }
+    }
+    
+    /**
+     * Reads ranked locations by id.
+     * 
+     * @param ids
+     *            The ids of the locations, best first
+     * @param columns
+     *            Any of {@link #LOCATION_COLUMNS} and {@link #SUGGESTION_COLUMNS}
+     * @return Cursor over the locations best first, or null if there are none
+     */
+    private Cursor getRankedLocations(int[] ids, String[] columns) {
+        if (ids.length == 0) {
+            return null;
+        }
         
-        MatrixCursor mCursor = new MatrixCursor(COLUMN_NAMES, cursor.getCount());
+        // The id is read last, to put the rows back in ranked order
+        String[] projection = new String[columns.length + 1];
+        for (int i = 0; i < columns.length; i++) {
+            projection[i] = getProjection(columns[i]);
+        }
+        projection[columns.length] = BaseColumns._ID;
         
-        while (!cursor.isAfterLast()) {
-            int id          = cursor.getInt(id_index);
-            String loc_name = cursor.getString(loc_name_index);
-            String abbr     = cursor.getString(abbr_index);
-            String coords   = cursor.getString(coords_index);
-            String addr     = cursor.getString(addr_index);
-            
-            List<Object> columnValues = new ArrayList<Object>();
-            columnValues.add(id);
-            columnValues.add(loc_name);
-            columnValues.add(abbr);
-            columnValues.add(loc_name + DATA_SEPARATOR + abbr + DATA_SEPARATOR + coords);
-            columnValues.add(addr);
-            
-            mCursor.addRow(columnValues);
-            
-            cursor.moveToNext();
+        // Rows come back in id order, sort the ids along with their ranks to match them up
+        long[] idRanks = new long[ids.length];
+        for (int rank = 0; rank < ids.length; rank++) {
+            idRanks[rank] = ((long) ids[rank] << 32) | rank;
+        }
+        Arrays.sort(idRanks);
+        
+        Cursor[] chunks = new Cursor[(ids.length + MAX_BOUND_IDS - 1) / MAX_BOUND_IDS];
+        for (int c = 0; c < chunks.length; c++) {
+            int from = c * MAX_BOUND_IDS;
+            String[] selectionArgs = new String[Math.min(MAX_BOUND_IDS, ids.length - from)];
+            for (int i = 0; i < selectionArgs.length; i++) {
+                selectionArgs[i] = Long.toString(idRanks[from + i] >>> 32);
+            }
+            chunks[c] = sqliteDB.rawQuery(wordMatchQueries.getLocationsSql(projection, selectionArgs.length), selectionArgs);
         }
+        Cursor cursor = chunks.length == 1 ? chunks[0] : new MergeCursor(chunks);
         
-        // As we are not returning this Cursor, release the Cursor and its resources 
-        cursor.close();
+        // Locations deleted by a changeset since they were ranked are left out
+        int[] rowOfRank = new int[ids.length];
+        Arrays.fill(rowOfRank, -1);
+        int found = 0;
+        int next = 0;
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(columns.length);
+            while (next < idRanks.length && (idRanks[next] >>> 32) < id) {
+                next++;
+            }
+            if (next < idRanks.length && (idRanks[next] >>> 32) == id) {
+                rowOfRank[(int) idRanks[next++]] = cursor.getPosition();
+                found++;
+            }
+        }
         
-        return mCursor;
+        if (found == 0) {
+            cursor.close();
+            return null;
+        }
+        int[] positions = new int[found];
+        for (int rank = 0, i = 0; rank < rowOfRank.length; rank++) {
+            if (rowOfRank[rank] >= 0) {
+                positions[i++] = rowOfRank[rank];
+            }
+        }
+        return new RankedCursor(cursor, positions, columns);
+    }
+    
+    /**
+     * @param column
+     *            One of {@link #LOCATION_COLUMNS} or {@link #SUGGESTION_COLUMNS}
+     * @return The SQL selecting the column from the locations table
+     */
+    private static String getProjection(String column) {
+        if (SearchManager.SUGGEST_COLUMN_TEXT_1.equals(column)) {
+            return LOC_NAME + " AS " + column;
+        } else if (SearchManager.SUGGEST_COLUMN_TEXT_2.equals(column)) {
+            return SUBTITLE + " AS " + column;
+        } else if (SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID.equals(column)) {
+            return BaseColumns._ID + " AS " + column;
+        } else if (Arrays.asList(LOCATION_COLUMNS).contains(column)) {
+            return column;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
     }
-}
+}
\ No newline at end of file
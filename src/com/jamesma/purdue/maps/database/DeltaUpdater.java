@@ -0,0 +1,140 @@
+package com.jamesma.purdue.maps.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+
+import org.json.JSONException;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.database.sqlite.SQLiteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.jamesma.purdue.maps.R;
+
+/**
+ * Keeps the installed database up to date between releases by applying the changesets published
+ * at the configured endpoint, instead of re-copying or rebuilding the database.
+ *
+ * The endpoint is asked for the changeset from the installed data version. It answers with a
+ * signed {@link Changeset}, or 204 No Content when there is nothing newer. Changesets are
+ * verified against the configured public key before anything is written, and applied in a
+ * single transaction. The endpoint is asked at most once per configured interval. Blocks on
+ * the network, never call from the main thread.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class DeltaUpdater {
+    private static final String TAG = "DeltaUpdater";
+
+    // Shared preference remembering when the endpoint was last asked
+    private static final String PREF_CHECKED_AT = "delta_update_checked_at";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    // A changeset is a handful of rows, anything bigger is refused rather than read into memory
+    private static final int MAX_CHANGESET_BYTES = 1024 * 1024;
+    // Changesets applied per update at most, the rest wait for the next one
+    private static final int MAX_CHANGESETS = 16;
+
+    private final Context mContext;
+    private final DatabaseHelper mDbHelper;
+
+    public DeltaUpdater(Context context, DatabaseHelper dbHelper) {
+        mContext = context;
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Fetch and apply the changesets from the installed data version on, one after another,
+     * unless the endpoint isn't configured or was asked too recently.
+     *
+     * @return Whether any changeset was applied
+     */
+    public boolean update() {
+        Resources res = mContext.getResources();
+        String url = res.getString(R.string.delta_update_url);
+        String publicKey = res.getString(R.string.delta_update_public_key);
+        if (url.length() == 0 || publicKey.length() == 0) {
+            return false;
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        long now = System.currentTimeMillis();
+        long interval = res.getInteger(R.integer.delta_update_interval_hours) * 60L * 60 * 1000;
+        long checkedAt = prefs.getLong(PREF_CHECKED_AT, 0);
+        if (checkedAt <= now && now - checkedAt < interval) {
+            return false;
+        }
+
+        boolean applied = false;
+        try {
+            String envelope;
+            for (int i = 0; i < MAX_CHANGESETS
+                    && (envelope = fetch(String.format(url, mDbHelper.getDataVersion()))) != null; i++) {
+                Changeset changeset = Changeset.parse(envelope, publicKey);
+                if (!mDbHelper.applyChangeset(changeset)) {
+                    // The endpoint answered for another version, try again next time
+                    Log.w(TAG, "Changeset doesn't apply to data version " + mDbHelper.getDataVersion() + ": " + changeset);
+                    break;
+                }
+                Log.i(TAG, "Applied " + changeset);
+                applied = true;
+            }
+            prefs.edit().putLong(PREF_CHECKED_AT, now).commit();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to fetch changeset", e);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Rejected changeset", e);
+        } catch (JSONException e) {
+            Log.e(TAG, "Malformed changeset", e);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to apply changeset, nothing was changed", e);
+        }
+        return applied;
+    }
+
+    /**
+     * @return The signed envelope, or null if there is no newer changeset
+     */
+    private static String fetch(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NO_CONTENT || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, n);
+                    if (body.size() > MAX_CHANGESET_BYTES) {
+                        throw new IOException("Changeset larger than " + MAX_CHANGESET_BYTES + " bytes at " + url);
+                    }
+                }
+                return body.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
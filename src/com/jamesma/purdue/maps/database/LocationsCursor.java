@@ -0,0 +1,151 @@
+package com.jamesma.purdue.maps.database;
+
+import java.util.List;
+
+import android.app.SearchManager;
+import android.database.AbstractCursor;
+import android.provider.BaseColumns;
+
+import com.jamesma.purdue.maps.search.CampusLocation;
+
+/**
+ * A read-only Cursor over locations held in memory.
+ * Column values are read from the current location when asked for, nothing is copied up front.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class LocationsCursor extends AbstractCursor {
+
+    // The location field behind each supported column
+    private static final int FIELD_ID = 0;
+    private static final int FIELD_NAME = 1;
+    private static final int FIELD_ABBR = 2;
+    private static final int FIELD_LAT_E6 = 3;
+    private static final int FIELD_LNG_E6 = 4;
+    private static final int FIELD_ADDR = 5;
+    private static final int FIELD_SUBTITLE = 6;
+
+    private final List<CampusLocation> mLocations;
+    private final String[] mColumns;
+    private final int[] mFields;
+
+    /**
+     * A Cursor conforming to Android custom suggestion standards.
+     *
+     * @see DatabaseHelper#SUGGESTION_COLUMNS
+     * @param locations
+     */
+    public LocationsCursor(List<CampusLocation> locations) {
+        this(locations, DatabaseHelper.SUGGESTION_COLUMNS);
+    }
+
+    /**
+     * @param locations
+     * @param columns
+     *            Any of {@link DatabaseHelper#LOCATION_COLUMNS} and {@link DatabaseHelper#SUGGESTION_COLUMNS}
+     */
+    public LocationsCursor(List<CampusLocation> locations, String[] columns) {
+        mLocations = locations;
+        mColumns = columns;
+        mFields = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            mFields[i] = getField(columns[i]);
+        }
+    }
+
+    private static int getField(String column) {
+        if (BaseColumns._ID.equals(column) || SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID.equals(column)) {
+            return FIELD_ID;
+        } else if (DatabaseHelper.LOC_NAME.equals(column) || SearchManager.SUGGEST_COLUMN_TEXT_1.equals(column)) {
+            return FIELD_NAME;
+        } else if (DatabaseHelper.ABBR.equals(column)) {
+            return FIELD_ABBR;
+        } else if (DatabaseHelper.LAT_E6.equals(column)) {
+            return FIELD_LAT_E6;
+        } else if (DatabaseHelper.LNG_E6.equals(column)) {
+            return FIELD_LNG_E6;
+        } else if (DatabaseHelper.ADDR.equals(column)) {
+            return FIELD_ADDR;
+        } else if (DatabaseHelper.SUBTITLE.equals(column) || SearchManager.SUGGEST_COLUMN_TEXT_2.equals(column)) {
+            return FIELD_SUBTITLE;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    @Override
+    public int getCount() {
+        return mLocations.size();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public String getString(int column) {
+        CampusLocation location = mLocations.get(getPosition());
+        switch (mFields[column]) {
+            case FIELD_NAME:
+                return location.getName();
+            case FIELD_ABBR:
+                return location.getAbbreviation();
+            case FIELD_ADDR:
+                return location.getAddress();
+            case FIELD_SUBTITLE:
+                return location.getSubtitle();
+            default:
+                return Long.toString(getLong(column));
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        CampusLocation location = mLocations.get(getPosition());
+        switch (mFields[column]) {
+            case FIELD_ID:
+                return location.getId();
+            case FIELD_LAT_E6:
+                return location.getLatitudeE6();
+            case FIELD_LNG_E6:
+                return location.getLongitudeE6();
+            default:
+                return Long.parseLong(getString(column));
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        switch (mFields[column]) {
+            case FIELD_NAME:
+            case FIELD_ABBR:
+            case FIELD_ADDR:
+            case FIELD_SUBTITLE:
+                return getString(column) == null;
+            default:
+                return false;
+        }
+    }
+
+}
@@ -1,15 +1,34 @@
 package com.jamesma.purdue.maps.database;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
-import android.provider.BaseColumns;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.jamesma.purdue.maps.R;
+import com.jamesma.purdue.maps.geo.GeoMath;
+import com.jamesma.purdue.maps.geo.LastKnownFix;
+import com.jamesma.purdue.maps.geo.SpatialGrid;
+import com.jamesma.purdue.maps.route.WalkwayGraph;
+import com.jamesma.purdue.maps.search.CampusLocation;
+import com.jamesma.purdue.maps.search.FuzzyMatcher;
+import com.jamesma.purdue.maps.search.LocationIndex;
+import com.jamesma.purdue.maps.search.ProximityRanker;
 
 /**
  * A content provider for custom suggestions in a search dialog.
@@ -18,34 +37,210 @@ import android.provider.BaseColumns;
  * 
  */
 public class LocationsProvider extends ContentProvider {
+    private static final String TAG = "LocationsProvider";
+    
     public static final String AUTHORITY = "com.jamesma.purdue.maps.database.LocationsProvider";
+    public static final Uri SUGGEST_URI = Uri.parse("content://" + AUTHORITY + "/" + SearchManager.SUGGEST_URI_PATH_QUERY);
+    // A single location is content://AUTHORITY/locations/<_id>, suggestions resolve to these
+    public static final Uri LOCATIONS_URI = Uri.parse("content://" + AUTHORITY + "/locations");
+    
+    // Locations inside a bounding box, see buildWithinBoxUri()
+    public static final Uri WITHIN_BOX_URI = Uri.withAppendedPath(LOCATIONS_URI, "within_box");
+    // Locations within a distance of a point, see buildWithinRadiusUri()
+    public static final Uri WITHIN_RADIUS_URI = Uri.withAppendedPath(LOCATIONS_URI, "within_radius");
+    
+    // The locations closest to a point, see buildNearestUri()
+    public static final Uri NEAREST_URI = Uri.withAppendedPath(LOCATIONS_URI, "nearest");
+    
+    // Every location matching a query, see buildSearchUri()
+    public static final Uri SEARCH_URI = Uri.withAppendedPath(LOCATIONS_URI, "search");
+    
+    // A walking route between two points, see buildRouteUri()
+    public static final Uri ROUTE_URI = Uri.parse("content://" + AUTHORITY + "/route");
+    
+    // Every building outline, see DatabaseHelper#FOOTPRINT_COLUMNS
+    public static final Uri FOOTPRINTS_URI = Uri.parse("content://" + AUTHORITY + "/footprints");
+    
+    // Query parameter of the search Uri
+    public static final String PARAM_QUERY = "q";
+    
+    // Query parameters of the spatial Uris
+    public static final String PARAM_MIN_LAT_E6 = "min_lat_e6";
+    public static final String PARAM_MIN_LNG_E6 = "min_lng_e6";
+    public static final String PARAM_MAX_LAT_E6 = "max_lat_e6";
+    public static final String PARAM_MAX_LNG_E6 = "max_lng_e6";
+    public static final String PARAM_LAT_E6 = "lat_e6";
+    public static final String PARAM_LNG_E6 = "lng_e6";
+    public static final String PARAM_RADIUS_METERS = "radius_m";
+    public static final String PARAM_COUNT = "k";
+    
+    // Query parameters of the route Uri
+    public static final String PARAM_FROM_LAT_E6 = "from_lat_e6";
+    public static final String PARAM_FROM_LNG_E6 = "from_lng_e6";
+    public static final String PARAM_TO_LAT_E6 = "to_lat_e6";
+    public static final String PARAM_TO_LNG_E6 = "to_lng_e6";
+    
+    // Columns of a route Cursor, one row per point along the route
+    public static final String ROUTE_DISTANCE_METERS = "distance_m";
+    public static final String[] ROUTE_COLUMNS = { DatabaseHelper.LAT_E6, DatabaseHelper.LNG_E6, ROUTE_DISTANCE_METERS };
+    
+    // Shared preference ranking suggestions and search results nearest first rather than by how well they match
+    public static final String PREF_NEAREST_FIRST = "nearest_first";
+    
+    // MIME type for a single location
+    public static final String LOCATION_MIME_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.jamesma.purdue.location";
+    // MIME type for a set of locations
+    public static final String LOCATIONS_MIME_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.jamesma.purdue.location";
+    // MIME type for the vertices of building outlines
+    public static final String FOOTPRINTS_MIME_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.jamesma.purdue.footprint_vertex";
+    // MIME type for the points of a route
+    public static final String ROUTE_MIME_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.jamesma.purdue.route_point";
 
     // UriMatcher stuff
     private static final int SEARCH_SUGGEST = 1;
+    private static final int LOCATION_ID = 2;
+    private static final int WITHIN_BOX = 3;
+    private static final int WITHIN_RADIUS = 4;
+    private static final int SEARCH = 5;
+    private static final int NEAREST = 6;
+    private static final int ROUTE = 7;
+    private static final int FOOTPRINTS = 8;
     private static final UriMatcher sURIMatcher = buildUriMatcher();
-
+    
+    // How long suggestion, search, location and route queries wait for the database before answering empty
+    private static final long BOOTSTRAP_WAIT_MILLIS = 2000;
+    
     private DatabaseHelper dbHelper;
+    
+    // Set once the database is installed and open, until then queries get an empty result
+    private volatile boolean databaseReady = false;
+    // Released along with databaseReady, for the queries that can wait a moment for it
+    private final CountDownLatch databaseReadyLatch = new CountDownLatch(1);
+    
+    // Built in the background when in-memory suggestions are enabled, null until then
+    private volatile LocationIndex locationIndex;
+    // Built in the background when fuzzy suggestions are enabled, null until then
+    private volatile FuzzyMatcher fuzzyMatcher;
+    // Built in the background for the spatial queries, null until then
+    private volatile SpatialGrid spatialGrid;
+    // Loaded by the first route query, null until then. Routes are rarely asked for, if at all
+    private volatile WalkwayGraph walkwayGraph;
 
     /**
-     * Builds up a UriMatcher for search suggestion.
+     * Builds up a UriMatcher for search suggestion, location lookup and spatial queries.
      */
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        matcher.addURI(AUTHORITY, "locations/#", LOCATION_ID);
+        matcher.addURI(AUTHORITY, "locations/within_box", WITHIN_BOX);
+        matcher.addURI(AUTHORITY, "locations/within_radius", WITHIN_RADIUS);
+        matcher.addURI(AUTHORITY, "locations/search", SEARCH);
+        matcher.addURI(AUTHORITY, "locations/nearest", NEAREST);
+        matcher.addURI(AUTHORITY, "route", ROUTE);
+        matcher.addURI(AUTHORITY, "footprints", FOOTPRINTS);
         matcher.addURI(AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, SEARCH_SUGGEST);
         matcher.addURI(AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", SEARCH_SUGGEST);
         return matcher;
     }
 
+    /**
+     * Builds a Uri for the locations inside a bounding box, edges included.
+     * 
+     * @return A Uri to query for a Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}
+     */
+    public static Uri buildWithinBoxUri(int minLatE6, int minLngE6, int maxLatE6, int maxLngE6) {
+        return WITHIN_BOX_URI.buildUpon()
+                .appendQueryParameter(PARAM_MIN_LAT_E6, Integer.toString(minLatE6))
+                .appendQueryParameter(PARAM_MIN_LNG_E6, Integer.toString(minLngE6))
+                .appendQueryParameter(PARAM_MAX_LAT_E6, Integer.toString(maxLatE6))
+                .appendQueryParameter(PARAM_MAX_LNG_E6, Integer.toString(maxLngE6))
+                .build();
+    }
+    
+    /**
+     * Builds a Uri for the locations within a great-circle distance of a point.
+     * 
+     * @return A Uri to query for a Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}
+     */
+    public static Uri buildWithinRadiusUri(int latE6, int lngE6, double radiusMeters) {
+        return WITHIN_RADIUS_URI.buildUpon()
+                .appendQueryParameter(PARAM_LAT_E6, Integer.toString(latE6))
+                .appendQueryParameter(PARAM_LNG_E6, Integer.toString(lngE6))
+                .appendQueryParameter(PARAM_RADIUS_METERS, Double.toString(radiusMeters))
+                .build();
+    }
+
+    /**
+     * Builds a Uri for the locations closest to a point by great-circle distance.
+     * 
+     * @param k
+     *            The number of locations
+     * @return A Uri to query for a Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}, nearest first
+     */
+    public static Uri buildNearestUri(int latE6, int lngE6, int k) {
+        return NEAREST_URI.buildUpon()
+                .appendQueryParameter(PARAM_LAT_E6, Integer.toString(latE6))
+                .appendQueryParameter(PARAM_LNG_E6, Integer.toString(lngE6))
+                .appendQueryParameter(PARAM_COUNT, Integer.toString(k))
+                .build();
+    }
+    
+    /**
+     * Builds a Uri for every location matching a query, unlike suggestions which are capped.
+     * 
+     * @return A Uri to query for a Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}
+     */
+    public static Uri buildSearchUri(String query) {
+        return SEARCH_URI.buildUpon()
+                .appendQueryParameter(PARAM_QUERY, query)
+                .build();
+    }
+
+    /**
+     * Builds a Uri for the shortest walking route between two points along the campus walkways.
+     * 
+     * @return A Uri to query for a Cursor over {@link #ROUTE_COLUMNS}
+     */
+    public static Uri buildRouteUri(int fromLatE6, int fromLngE6, int toLatE6, int toLngE6) {
+        return ROUTE_URI.buildUpon()
+                .appendQueryParameter(PARAM_FROM_LAT_E6, Integer.toString(fromLatE6))
+                .appendQueryParameter(PARAM_FROM_LNG_E6, Integer.toString(fromLngE6))
+                .appendQueryParameter(PARAM_TO_LAT_E6, Integer.toString(toLatE6))
+                .appendQueryParameter(PARAM_TO_LNG_E6, Integer.toString(toLngE6))
+                .build();
+    }
+
     /**
      * Initializes the provider by creating a new DatabaseHelper. onCreate() is
      * called automatically when Android creates the provider in response to a
-     * resolver request from a client.
+     * resolver request from a client, on the main thread during process start,
+     * so the database is installed and opened in the background.
      */
     @Override
     public boolean onCreate() {
         // Create a database helper object to manage our SQLite database in assets/
         dbHelper = new DatabaseHelper(getContext());
         
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                bootstrapDatabase();
+            }
+        }, "LocationsBootstrap").start();
+        
+        // Assumes that any failures will be reported by a thrown exception.
+        return true;
+    }
+    
+    /**
+     * Installs the bundled database if the installed copy is out of date and opens it. 
+     * Anyone who queried before the database was ready is notified through {@link #SUGGEST_URI}, 
+     * {@link #FOOTPRINTS_URI} or {@link #ROUTE_URI}, or through {@link #LOCATIONS_URI} for spatial 
+     * queries once the spatial grid is built. Then applies any 
+     * published changesets, see {@link DeltaUpdater}. The walkway graph isn't loaded here, see 
+     * {@link #getWalkwayGraph()}.
+     */
+    private void bootstrapDatabase() {
         try {
             dbHelper.createDatabase();
         } catch (IOException e) {
@@ -58,8 +253,70 @@ public class LocationsProvider extends ContentProvider {
             throw new Error("Unable to open database");
         }
         
-        // Assumes that any failures will be reported by a thrown exception.
-        return true;
+        databaseReady = true;
+        databaseReadyLatch.countDown();
+        getContext().getContentResolver().notifyChange(SUGGEST_URI, null);
+        getContext().getContentResolver().notifyChange(FOOTPRINTS_URI, null);
+        getContext().getContentResolver().notifyChange(ROUTE_URI, null);
+        
+        buildLocationIndexes();
+        
+        if (new DeltaUpdater(getContext(), dbHelper).update()) {
+            // Swap in indexes of the updated locations, the old ones serve queries meanwhile
+            buildLocationIndexes();
+            getContext().getContentResolver().notifyChange(SUGGEST_URI, null);
+            getContext().getContentResolver().notifyChange(FOOTPRINTS_URI, null);
+        }
+    }
+
+    /**
+     * Loads every location once and builds the spatial grid and the enabled in-memory indexes. 
+     * Suggestions are served from the database until the location index is ready, and without 
+     * typo tolerance until the fuzzy matcher is.
+     */
+    private void buildLocationIndexes() {
+        Resources res = getContext().getResources();
+        boolean useLocationIndex = res.getBoolean(R.bool.use_in_memory_suggestions);
+        boolean useFuzzyMatcher = res.getBoolean(R.bool.use_fuzzy_suggestions);
+        
+        try {
+            List<CampusLocation> locations = dbHelper.getAllLocations();
+            spatialGrid = new SpatialGrid(locations);
+            getContext().getContentResolver().notifyChange(LOCATIONS_URI, null);
+            
+            if (useLocationIndex) {
+                locationIndex = new LocationIndex(locations);
+            }
+            if (useFuzzyMatcher) {
+                fuzzyMatcher = new FuzzyMatcher(locations);
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to build the in-memory indexes", e);
+        }
+    }
+    
+    /**
+     * Loads the walkway graph for routing the first time a route is asked for, rather than on every
+     * start. Picking the landmarks takes a few searches over the graph. Call once the database is ready.
+     * 
+     * @return The graph, or null if it can't be loaded
+     */
+    private WalkwayGraph getWalkwayGraph() {
+        WalkwayGraph graph = walkwayGraph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = walkwayGraph;
+                if (graph == null) {
+                    try {
+                        graph = dbHelper.getWalkwayGraph();
+                        walkwayGraph = graph;
+                    } catch (SQLiteException e) {
+                        Log.e(TAG, "Unable to load the walkways", e);
+                    }
+                }
+            }
+        }
+        return graph;
     }
 
     @Override
@@ -71,34 +328,353 @@ public class LocationsProvider extends ContentProvider {
                 if (selectionArgs == null) {
                     throw new IllegalArgumentException("selectionArgs must be provided for the Uri: " + uri);
                 }
-                return getSuggestions(selectionArgs[0]);
+                return getSuggestions(selectionArgs[0], getMaxSuggestions(uri));
+            case LOCATION_ID:
+                return getLocation(ContentUris.parseId(uri));
+            case WITHIN_BOX:
+            case WITHIN_RADIUS:
+            case NEAREST:
+                return getSpatialMatches(uri, projection);
+            case SEARCH:
+                return getSearchResults(getRequiredParameter(uri, PARAM_QUERY), projection);
+            case ROUTE:
+                return getRoute(uri);
+            case FOOTPRINTS:
+                return getFootprints();
             default:
                 throw new IllegalArgumentException("Unknown Uri: " + uri);
         }
     }
 
+    /**
+     * Waits a moment for the bootstrap to open the database. Queries typed while it opens are answered 
+     * once it is, rather than with an empty result the search UI would only ever requery as empty. 
+     * Never called on the main thread, the search UI queries from a worker thread and the app from 
+     * AsyncTasks.
+     * 
+     * @return Whether the database is ready
+     */
+    private boolean awaitDatabase() {
+        if (databaseReady) {
+            return true;
+        }
+        try {
+            return databaseReadyLatch.await(BOOTSTRAP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The number of suggestions to return, capped by the limit the search UI asks for.
+     * 
+     * @param uri
+     * @return
+     */
+    private int getMaxSuggestions(Uri uri) {
+        int maxSuggestions = getContext().getResources().getInteger(R.integer.max_suggestions);
+        
+        String limit = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+        if (limit != null) {
+            try {
+                maxSuggestions = Math.min(maxSuggestions, Integer.parseInt(limit));
+            } catch (NumberFormatException e) {
+                // Ignore malformed limits
+            }
+        }
+        
+        return Math.max(maxSuggestions, 0);
+    }
+
     /**
      * Helper method to begin search process in DatabaseHelper.
      * 
      * @param query
+     * @param maxSuggestions
      * @return
      */
-    private Cursor getSuggestions(String query) {
-        query = query.toLowerCase();
-        String[] columns = new String[] { 
-                BaseColumns._ID,
-                DatabaseHelper.LOC_NAME, 
-                DatabaseHelper.ABBR,
-                DatabaseHelper.COORDS,
-                DatabaseHelper.ADDR
-                };
+    private Cursor getSuggestions(String query, int maxSuggestions) {
+        if (!awaitDatabase()) {
+            // Don't block the search UI any longer, it is told to query again once ready
+            MatrixCursor cursor = new MatrixCursor(DatabaseHelper.SUGGESTION_COLUMNS, 0);
+            cursor.setNotificationUri(getContext().getContentResolver(), SUGGEST_URI);
+            return cursor;
+        }
+        
+        query = query.toLowerCase(Locale.US);
+        LastKnownFix fix = getRankingFix();
+        
+        Cursor cursor;
+        LocationIndex index = locationIndex;
+        if (index != null) {
+            List<CampusLocation> matches = fix == null 
+                    ? index.search(query, maxSuggestions) 
+                    : index.searchNearest(query, maxSuggestions, fix.getLatitudeE6(), fix.getLongitudeE6());
+            cursor = matches.isEmpty() ? null : new LocationsCursor(matches);
+        } else if (fix == null) {
+            cursor = dbHelper.getWordMatches(query, maxSuggestions);
+        } else {
+            cursor = dbHelper.getNearestWordMatches(query, maxSuggestions, 
+                    fix.getLatitudeE6(), fix.getLongitudeE6(), DatabaseHelper.SUGGESTION_COLUMNS);
+        }
+        
+        // Nothing matched exactly, maybe the query was misspelled
+        FuzzyMatcher matcher = fuzzyMatcher;
+        if (cursor == null && matcher != null) {
+            List<CampusLocation> matches = getFuzzyMatches(matcher, query, maxSuggestions, fix);
+            cursor = matches.isEmpty() ? null : new LocationsCursor(matches);
+        }
+        
+        return cursor;
+    }
+
+    /**
+     * Looks up every location matching a query, falling back to approximate matches like suggestions do.
+     * 
+     * @param query
+     * @param projection
+     *            Any of {@link DatabaseHelper#LOCATION_COLUMNS}, null for all of them
+     * @return Cursor over the matching locations best first, or nearest first when {@link #PREF_NEAREST_FIRST} 
+     *         is on, or null if none found
+     */
+    private Cursor getSearchResults(String query, String[] projection) {
+        String[] columns = projection == null ? DatabaseHelper.LOCATION_COLUMNS : projection;
+        
+        if (!awaitDatabase()) {
+            // Don't block any longer, the caller is told to query again once ready
+            MatrixCursor cursor = new MatrixCursor(columns, 0);
+            cursor.setNotificationUri(getContext().getContentResolver(), LOCATIONS_URI);
+            return cursor;
+        }
+        
+        query = query.toLowerCase(Locale.US);
+        LastKnownFix fix = getRankingFix();
+        
+        Cursor cursor;
+        LocationIndex index = locationIndex;
+        if (index != null) {
+            List<CampusLocation> matches = fix == null 
+                    ? index.search(query, index.size()) 
+                    : index.searchNearest(query, index.size(), fix.getLatitudeE6(), fix.getLongitudeE6());
+            cursor = matches.isEmpty() ? null : new LocationsCursor(matches, columns);
+        } else if (fix == null) {
+            cursor = dbHelper.getAllWordMatches(query, columns);
+        } else {
+            cursor = dbHelper.getNearestWordMatches(query, Integer.MAX_VALUE, 
+                    fix.getLatitudeE6(), fix.getLongitudeE6(), columns);
+        }
+        
+        // Nothing matched exactly, maybe the query was misspelled. Approximate matches
+        // get vague quickly, so there are only ever as many as there are suggestions
+        FuzzyMatcher matcher = fuzzyMatcher;
+        if (cursor == null && matcher != null) {
+            int maxMatches = getContext().getResources().getInteger(R.integer.max_suggestions);
+            List<CampusLocation> matches = getFuzzyMatches(matcher, query, maxMatches, fix);
+            cursor = matches.isEmpty() ? null : new LocationsCursor(matches, columns);
+        }
+        
+        return cursor;
+    }
+    
+    /**
+     * The best approximate matches of a query, put nearest first if there is a fix to rank by.
+     */
+    private static List<CampusLocation> getFuzzyMatches(FuzzyMatcher matcher, String query, int maxMatches, 
+            LastKnownFix fix) {
+        List<CampusLocation> matches = matcher.search(query, maxMatches);
+        if (fix == null) {
+            return matches;
+        }
+        return ProximityRanker.getNearestMatches(matches, fix.getLatitudeE6(), fix.getLongitudeE6(), maxMatches);
+    }
+    
+    /**
+     * The fix to rank matches by when nearest first is on. Without a recent fix matches are 
+     * ranked by how well they match, as when it is off.
+     * 
+     * @return The fix, or null to rank by how well matches match
+     */
+    private LastKnownFix getRankingFix() {
+        if (!PreferenceManager.getDefaultSharedPreferences(getContext()).getBoolean(PREF_NEAREST_FIRST, false)) {
+            return null;
+        }
+        int maxAgeMinutes = getContext().getResources().getInteger(R.integer.max_fix_age_minutes);
+        return LastKnownFix.get(maxAgeMinutes * 60 * 1000L);
+    }
 
-        return dbHelper.getWordMatches(query, columns);
+    /**
+     * Looks up a single location, typically one picked from the suggestions.
+     * 
+     * @param id
+     * @return Cursor over {@link DatabaseHelper#LOCATION_COLUMNS}, or null if the database didn't open in time
+     */
+    private Cursor getLocation(long id) {
+        if (!awaitDatabase()) {
+            return null;
+        }
+        return dbHelper.getLocation(id);
+    }
+
+    /**
+     * Looks up the locations inside a bounding box or radius, or closest to a point, in the spatial grid.
+     * 
+     * @param uri
+     *            One built by {@link #buildWithinBoxUri}, {@link #buildWithinRadiusUri} or {@link #buildNearestUri}
+     * @param projection
+     *            Any of {@link DatabaseHelper#LOCATION_COLUMNS}, null for all of them
+     * @return Cursor over the locations, nearest first for nearest queries and in no particular order otherwise
+     */
+    private Cursor getSpatialMatches(Uri uri, String[] projection) {
+        String[] columns = projection == null ? DatabaseHelper.LOCATION_COLUMNS : projection;
+        
+        SpatialGrid grid = spatialGrid;
+        if (grid == null) {
+            // Don't block on the bootstrap, the caller is told to query again once ready
+            MatrixCursor cursor = new MatrixCursor(columns, 0);
+            cursor.setNotificationUri(getContext().getContentResolver(), LOCATIONS_URI);
+            return cursor;
+        }
+        
+        List<CampusLocation> matches;
+        switch (sURIMatcher.match(uri)) {
+            case WITHIN_BOX:
+                matches = grid.getWithinBox(
+                        getIntParameter(uri, PARAM_MIN_LAT_E6), 
+                        getIntParameter(uri, PARAM_MIN_LNG_E6), 
+                        getIntParameter(uri, PARAM_MAX_LAT_E6), 
+                        getIntParameter(uri, PARAM_MAX_LNG_E6));
+                break;
+            case WITHIN_RADIUS:
+                matches = grid.getWithinRadius(
+                        getIntParameter(uri, PARAM_LAT_E6), 
+                        getIntParameter(uri, PARAM_LNG_E6), 
+                        getDoubleParameter(uri, PARAM_RADIUS_METERS));
+                break;
+            default:
+                matches = grid.getNearest(
+                        getIntParameter(uri, PARAM_LAT_E6), 
+                        getIntParameter(uri, PARAM_LNG_E6), 
+                        getIntParameter(uri, PARAM_COUNT));
+                break;
+        }
+        return new LocationsCursor(matches, columns);
+    }
+    
+    /**
+     * Reads the building outlines.
+     * 
+     * @return Cursor over {@link DatabaseHelper#FOOTPRINT_COLUMNS}
+     */
+    private Cursor getFootprints() {
+        if (!databaseReady) {
+            // Don't block on the bootstrap, the caller is told to query again once ready
+            MatrixCursor cursor = new MatrixCursor(DatabaseHelper.FOOTPRINT_COLUMNS, 0);
+            cursor.setNotificationUri(getContext().getContentResolver(), FOOTPRINTS_URI);
+            return cursor;
+        }
+        return dbHelper.getFootprints();
+    }
+    
+    /**
+     * Finds the shortest walking route between two points. The points are joined to the walkways at
+     * their nearest nodes, and the straight legs to and from those are part of the route.
+     * 
+     * @param uri
+     *            One built by {@link #buildRouteUri}
+     * @return Cursor over {@link #ROUTE_COLUMNS} from the start to the end with the distance walked 
+     *         so far, or null if the walkways don't connect the points
+     */
+    private Cursor getRoute(Uri uri) {
+        if (!awaitDatabase()) {
+            // Don't block any longer, the caller is told to query again once ready
+            MatrixCursor cursor = new MatrixCursor(ROUTE_COLUMNS, 0);
+            cursor.setNotificationUri(getContext().getContentResolver(), ROUTE_URI);
+            return cursor;
+        }
+        WalkwayGraph graph = getWalkwayGraph();
+        if (graph == null) {
+            return null;
+        }
+        
+        int fromLatE6 = getIntParameter(uri, PARAM_FROM_LAT_E6);
+        int fromLngE6 = getIntParameter(uri, PARAM_FROM_LNG_E6);
+        int toLatE6 = getIntParameter(uri, PARAM_TO_LAT_E6);
+        int toLngE6 = getIntParameter(uri, PARAM_TO_LNG_E6);
+        
+        int start = graph.getNearestNode(fromLatE6, fromLngE6);
+        int target = graph.getNearestNode(toLatE6, toLngE6);
+        WalkwayGraph.Route route = start == -1 ? null : graph.findRoute(start, target);
+        if (route == null) {
+            return null;
+        }
+        
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "Route of " + route.getLengthMeters() + " m expanded " + route.getExpandedNodes() 
+                    + " of " + graph.size() + " nodes");
+        }
+        
+        int[] nodes = route.getNodes();
+        float[] distances = route.getDistancesMeters();
+        int last = nodes[nodes.length - 1];
+        double startLeg = GeoMath.distanceMeters(
+                fromLatE6, fromLngE6, graph.getLatitudeE6(start), graph.getLongitudeE6(start));
+        double endLeg = GeoMath.distanceMeters(
+                graph.getLatitudeE6(last), graph.getLongitudeE6(last), toLatE6, toLngE6);
+        
+        MatrixCursor cursor = new MatrixCursor(ROUTE_COLUMNS, nodes.length + 2);
+        cursor.addRow(new Object[] { fromLatE6, fromLngE6, 0.0 });
+        for (int i = 0; i < nodes.length; i++) {
+            cursor.addRow(new Object[] {
+                    graph.getLatitudeE6(nodes[i]), graph.getLongitudeE6(nodes[i]), startLeg + distances[i] });
+        }
+        cursor.addRow(new Object[] { toLatE6, toLngE6, startLeg + route.getLengthMeters() + endLeg });
+        return cursor;
+    }
+    
+    private static String getRequiredParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name + " in Uri: " + uri);
+        }
+        return value;
+    }
+    
+    private static int getIntParameter(Uri uri, String name) {
+        try {
+            return Integer.parseInt(getRequiredParameter(uri, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed " + name + " in Uri: " + uri);
+        }
+    }
+    
+    private static double getDoubleParameter(Uri uri, String name) {
+        try {
+            return Double.parseDouble(getRequiredParameter(uri, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed " + name + " in Uri: " + uri);
+        }
     }
 
     @Override
     public String getType(Uri uri) {
-        return null;
+        switch (sURIMatcher.match(uri)) {
+            case SEARCH_SUGGEST:
+                return SearchManager.SUGGEST_MIME_TYPE;
+            case LOCATION_ID:
+                return LOCATION_MIME_TYPE;
+            case WITHIN_BOX:
+            case WITHIN_RADIUS:
+            case NEAREST:
+            case SEARCH:
+                return LOCATIONS_MIME_TYPE;
+            case ROUTE:
+                return ROUTE_MIME_TYPE;
+            case FOOTPRINTS:
+                return FOOTPRINTS_MIME_TYPE;
+            default:
+                throw new IllegalArgumentException("Unknown Uri: " + uri);
+        }
     }
 
     @Override
@@ -0,0 +1,97 @@
+package com.jamesma.purdue.maps.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A read-only Cursor presenting a selection of another Cursor's rows in ranked order.
+ * Reads are served by moving the underlying Cursor, so no row is ever copied.
+ *
+ * @see com.jamesma.purdue.maps.search.SuggestionRanker
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class RankedCursor extends AbstractCursor {
+
+    private final Cursor mCursor;
+    private final int[] mPositions;
+    private final String[] mColumns;
+
+    /**
+     * @param cursor
+     *            The Cursor holding the rows, closed along with this Cursor
+     * @param positions
+     *            The positions in cursor of the rows to present, in order
+     * @param columns
+     *            The names of the leading columns of cursor to present, any columns after them
+     *            were only read to rank the rows
+     */
+    public RankedCursor(Cursor cursor, int[] positions, String[] columns) {
+        mCursor = cursor;
+        mPositions = positions;
+        mColumns = columns;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        return mCursor.moveToPosition(mPositions[newPosition]);
+    }
+
+    @Override
+    public int getCount() {
+        return mPositions.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCursor.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCursor.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCursor.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCursor.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCursor.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCursor.getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCursor.isNull(column);
+    }
+
+    @Override
+    public void deactivate() {
+        super.deactivate();
+        mCursor.deactivate();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        mCursor.close();
+    }
+
+}
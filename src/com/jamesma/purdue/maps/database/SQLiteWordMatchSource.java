@@ -0,0 +1,47 @@
+package com.jamesma.purdue.maps.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Runs word match queries on an Android SQLite database. Identical SQL text is served from the
+ * connection's compiled statement cache.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+class SQLiteWordMatchSource implements WordMatchSource {
+
+    private final SQLiteDatabase db;
+
+    SQLiteWordMatchSource(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public Rows query(String sql, String[] selectionArgs) {
+        final Cursor cursor = db.rawQuery(sql, selectionArgs);
+        return new Rows() {
+            @Override
+            public boolean moveToNext() {
+                return cursor.moveToNext();
+            }
+
+            @Override
+            public int getInt(int column) {
+                return cursor.getInt(column);
+            }
+
+            @Override
+            public String getString(int column) {
+                return cursor.getString(column);
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+}
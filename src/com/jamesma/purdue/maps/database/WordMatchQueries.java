@@ -0,0 +1,240 @@
+package com.jamesma.purdue.maps.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Builds the parameterized SQL behind {@link DatabaseHelper#getWordMatches(String, int)}.
+ *
+ * User input is only ever bound as arguments, so the SQL text depends on nothing but the
+ * shape of the query: the columns and how many grams it looks up. Each shape is built once
+ * and the same string is handed back afterwards, which lets SQLite reuse the statement it
+ * already compiled for that text instead of parsing and planning it again.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class WordMatchQueries {
+
+    public static final String TABLE_NAME = "purdue_campus_locations";
+
+    // Inverted n-gram index over lowercased names and abbreviations, one (gram, loc_id) row per distinct gram
+    public static final String GRAM_TABLE_NAME = "purdue_campus_locations_grams";
+    public static final String GRAM = "gram";
+    public static final String GRAM_LOC_ID = "loc_id";
+    static final int MIN_GRAM_LENGTH = 2;
+    static final int MAX_GRAM_LENGTH = 3;
+    // Every gram we intersect narrows the candidate set, but a handful is already selective enough
+    static final int MAX_QUERY_GRAMS = 8;
+
+    private static final char LIKE_ESCAPE = '\\';
+    // Joins the parts of a search key, never typed so no query can match across two parts
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    private final String idColumn;
+    private final String keyColumn;
+
+    // Built SQL per gram count, 0 being the table scan
+    private final String[] sqlByGramCount = new String[MAX_QUERY_GRAMS + 1];
+    private String[] sqlColumns;
+
+    /**
+     * @param idColumn
+     *            The rowid column of the locations table
+     * @param keyColumn
+     *            The column holding the {@link #getSearchKey(String, String)} of each location
+     */
+    public WordMatchQueries(String idColumn, String keyColumn) {
+        this.idColumn = idColumn;
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * The normalized text a location is searched by, stored with it when the database is built:
+     * its lowercased name and abbreviation joined by a separator no query contains.
+     *
+     * @param name
+     * @param abbr
+     *            The abbreviation, or null if there is none
+     */
+    public static String getSearchKey(String name, String abbr) {
+        String key = name.toLowerCase(Locale.US);
+        return abbr == null ? key : key + KEY_SEPARATOR + abbr.toLowerCase(Locale.US);
+    }
+
+    /**
+     * @param searchKey
+     *            See {@link #getSearchKey(String, String)}
+     * @return The length of the name at the start of the key
+     */
+    public static int getNameLength(String searchKey) {
+        int separator = searchKey.indexOf(KEY_SEPARATOR);
+        return separator == -1 ? searchKey.length() : separator;
+    }
+
+    /**
+     * Split a search key into the distinct grams stored in the index for its location. Every
+     * substring of a key as long as a query gram is stored, none spanning two parts of the key.
+     *
+     * @param searchKey
+     *            See {@link #getSearchKey(String, String)}
+     * @return The distinct grams, in order of first occurrence
+     */
+    public static List<String> getIndexGrams(String searchKey) {
+        Set<String> grams = new LinkedHashSet<String>();
+        int start = 0;
+        while (start <= searchKey.length()) {
+            int end = searchKey.indexOf(KEY_SEPARATOR, start);
+            if (end == -1) {
+                end = searchKey.length();
+            }
+            for (int length = MIN_GRAM_LENGTH; length <= MAX_GRAM_LENGTH; length++) {
+                for (int i = start; i + length <= end; i++) {
+                    grams.add(searchKey.substring(i, i + length));
+                }
+            }
+            start = end + 1;
+        }
+        return new ArrayList<String>(grams);
+    }
+
+    /**
+     * Split the query into the distinct grams to look up in the index. Queries that fit in a
+     * single gram are looked up as-is, longer queries are split into overlapping trigrams.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @return The distinct grams of the query, empty if it is too short to be looked up
+     */
+    public static List<String> getQueryGrams(String query) {
+        List<String> grams = new ArrayList<String>();
+        if (query.length() < MIN_GRAM_LENGTH) {
+            return grams;
+        }
+        if (query.length() <= MAX_GRAM_LENGTH) {
+            grams.add(query);
+            return grams;
+        }
+
+        for (int i = 0; i + MAX_GRAM_LENGTH <= query.length() && grams.size() < MAX_QUERY_GRAMS; i++) {
+            String gram = query.substring(i, i + MAX_GRAM_LENGTH);
+            if (!grams.contains(gram)) {
+                grams.add(gram);
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * Returns the SQL matching the query against the search keys. Only rows containing
+     * every gram can contain the query itself, so the index narrows the search to those rows
+     * and LIKE verifies the candidates. Without grams every row is scanned.
+     *
+     * @param columns
+     *            The columns to return
+     * @param gramCount
+     *            The number of grams looked up in the index
+     * @return The SQL, identical for every call with the same shape
+     */
+    public synchronized String getSql(String[] columns, int gramCount) {
+        if (!Arrays.equals(columns, sqlColumns)) {
+            Arrays.fill(sqlByGramCount, null);
+            sqlColumns = columns.clone();
+        }
+
+        String sql = sqlByGramCount[gramCount];
+        if (sql == null) {
+            sql = buildSql(columns, gramCount);
+            sqlByGramCount[gramCount] = sql;
+        }
+        return sql;
+    }
+
+    private String buildSql(String[] columns, int gramCount) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(" FROM ").append(TABLE_NAME).append(" WHERE ");
+
+        if (gramCount > 0) {
+            sql.append(idColumn).append(" IN (SELECT ").append(GRAM_LOC_ID)
+               .append(" FROM ").append(GRAM_TABLE_NAME)
+               .append(" WHERE ").append(GRAM).append(" IN (");
+            for (int i = 0; i < gramCount; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(") GROUP BY ").append(GRAM_LOC_ID)
+               .append(" HAVING COUNT(*) = ").append(gramCount).append(") AND ");
+        }
+
+        sql.append(keyColumn).append(" LIKE ? ESCAPE '").append(LIKE_ESCAPE).append("'");
+        return sql.toString();
+    }
+
+    /**
+     * Returns the SQL reading locations by rowid, the ids being bound as arguments. Like
+     * {@link #getSql(String[], int)}, the text only depends on the columns and the number of ids.
+     *
+     * @param columns
+     *            The columns to return
+     * @param idCount
+     *            The number of ids to read
+     * @return The SQL, returning the rows in rowid order
+     */
+    public String getLocationsSql(String[] columns, int idCount) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(" FROM ").append(TABLE_NAME).append(" WHERE ").append(idColumn).append(" IN (");
+        for (int i = 0; i < idCount; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") ORDER BY ").append(idColumn);
+        return sql.toString();
+    }
+
+    /**
+     * Returns the values bound to the SQL of {@link #getSql(String[], int)}.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @param grams
+     *            The grams looked up in the index
+     * @return The bound arguments, grams first
+     */
+    public static String[] getSelectionArgs(String query, List<String> grams) {
+        String pattern = "%" + escapeLikePattern(query) + "%";
+
+        String[] selectionArgs = new String[grams.size() + 1];
+        grams.toArray(selectionArgs);
+        selectionArgs[grams.size()] = pattern;
+        return selectionArgs;
+    }
+
+    /**
+     * Escape the LIKE wildcards so that a '%' or '_' typed by the user only matches itself.
+     */
+    static String escapeLikePattern(String query) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(query.length() + 4).append(query, 0, i);
+                }
+                escaped.append(LIKE_ESCAPE);
+            }
+            if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? query : escaped.toString();
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.jamesma.purdue.maps.database;
+
+/**
+ * Runs the SQL of {@link WordMatchQueries} on whichever SQLite API is at hand, the Android one in
+ * the application or JDBC on a desktop JVM, so {@link WordMatcher} runs the same on both.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public interface WordMatchSource {
+
+    /**
+     * Runs a query.
+     *
+     * @param sql
+     *            The SQL to run, reused across calls with the same shape
+     * @param selectionArgs
+     *            The values bound to the ?s in sql
+     * @return The rows, to be closed once read
+     */
+    Rows query(String sql, String[] selectionArgs);
+
+    /**
+     * The rows of a query, read front to back. Columns are numbered from 0, in the order selected.
+     */
+    interface Rows {
+
+        boolean moveToNext();
+
+        int getInt(int column);
+
+        String getString(int column);
+
+        void close();
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.jamesma.purdue.maps.database;
+
+import java.util.List;
+
+import com.jamesma.purdue.maps.search.CandidateSet;
+import com.jamesma.purdue.maps.search.ProximityRanker;
+import com.jamesma.purdue.maps.search.QueryCache;
+import com.jamesma.purdue.maps.search.SuggestionRanker;
+
+/**
+ * Finds the best locations matching a query: from the matches of a recent query in the
+ * {@link QueryCache}, or else with the SQL of {@link WordMatchQueries}, ranking them in a bounded
+ * heap as they are read either way. Only the ids of the best matches come out, the caller reads
+ * the locations it needs by id.
+ *
+ * Plain Java over a {@link WordMatchSource}, so the benchmarks run exactly what the application does.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class WordMatcher {
+
+    // Recent queries cached for narrowing down while the user types
+    private static final int MAX_CACHED_QUERIES = 32;
+    // Queries matching more locations than this are streamed from the database every time instead
+    private static final int MAX_CACHED_MATCHES = 1000;
+
+    private final WordMatchSource source;
+    private final WordMatchQueries queries;
+    private final String[] candidateColumns;
+    private final QueryCache queryCache = new QueryCache(MAX_CACHED_QUERIES);
+
+    /**
+     * @param source
+     *            Runs the SQL
+     * @param queries
+     *            Builds the SQL
+     * @param candidateColumns
+     *            The id, search key, latitude and longitude columns of the locations table. All that
+     *            is read of every match, to rank it and to cache it
+     */
+    public WordMatcher(WordMatchSource source, WordMatchQueries queries, String[] candidateColumns) {
+        this.source = source;
+        this.queries = queries;
+        this.candidateColumns = candidateColumns.clone();
+    }
+
+    /**
+     * Ranks the matches of a query by how the query matched them.
+     *
+     * @see SuggestionRanker
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of matches to keep
+     * @return The ids of the best matches, best first
+     */
+    public int[] getBestMatches(final String query, int maxResults) {
+        final SuggestionRanker ranker = new SuggestionRanker(query, maxResults);
+        offerMatches(query, new MatchConsumer() {
+            @Override
+            public void offer(int id, String searchKey, int latE6, int lngE6) {
+                int nameLength = WordMatchQueries.getNameLength(searchKey);
+                ranker.offer(id, SuggestionRanker.getTier(query, searchKey, nameLength), nameLength);
+            }
+        });
+
+        return ranker.getRankedPositions();
+    }
+
+    /**
+     * Ranks the matches of a query by distance to a point.
+     *
+     * @see ProximityRanker
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of matches to keep
+     * @return The ids of the nearest matches, nearest first
+     */
+    public int[] getNearestMatches(String query, int maxResults, int latE6, int lngE6) {
+        final ProximityRanker ranker = new ProximityRanker(latE6, lngE6, maxResults);
+        offerMatches(query, new MatchConsumer() {
+            @Override
+            public void offer(int id, String searchKey, int matchLatE6, int matchLngE6) {
+                ranker.offer(id, matchLatE6, matchLngE6);
+            }
+        });
+
+        return ranker.getRankedPositions();
+    }
+
+    /**
+     * Forget the cached queries, once the locations they matched have changed.
+     */
+    public void clearCache() {
+        queryCache.clear();
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Takes the matches of a query one at a time, as they are read from the cache or the database.
+     * Matches are offered to the rankers by id, so ties rank the same wherever the matches came from.
+     */
+    private interface MatchConsumer {
+        void offer(int id, String searchKey, int latE6, int lngE6);
+    }
+
+    /**
+     * Offers every match of a query, from the cache or else from the database.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @param consumer
+     *            Takes the matches, in no particular order
+     */
+    private synchronized void offerMatches(String query, MatchConsumer consumer) {
+        CandidateSet candidates = queryCache.get(query);
+        if (candidates != null) {
+            for (int i = 0; i < candidates.size(); i++) {
+                consumer.offer(candidates.getId(i), candidates.getSearchKey(i),
+                        candidates.getLatitudeE6(i), candidates.getLongitudeE6(i));
+            }
+            return;
+        }
+
+        // Nothing to look up in the index falls back to a table scan
+        List<String> grams = WordMatchQueries.getQueryGrams(query);
+
+        WordMatchSource.Rows rows = source.query(
+                queries.getSql(candidateColumns, grams.size()),
+                WordMatchQueries.getSelectionArgs(query, grams));
+        candidates = new CandidateSet(16);
+        try {
+            while (rows.moveToNext()) {
+                int id = rows.getInt(0);
+                String searchKey = rows.getString(1);
+                int latE6 = rows.getInt(2);
+                int lngE6 = rows.getInt(3);
+                consumer.offer(id, searchKey, latE6, lngE6);
+
+                // Broad queries are only streamed through the rankers, too many matches to keep around
+                if (candidates != null) {
+                    candidates.add(id, searchKey, latE6, lngE6);
+                    if (candidates.size() > MAX_CACHED_MATCHES) {
+                        candidates = null;
+                    }
+                }
+            }
+        } finally {
+            rows.close();
+        }
+
+        if (candidates != null) {
+            queryCache.put(query, candidates);
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.jamesma.purdue.maps.geo;
+
+/**
+ * An immutable index of building footprint polygons, for finding the buildings a point is inside.
+ *
+ * Every footprint is registered in the cells of a uniform grid that its bounding box overlaps.
+ * A lookup visits the one cell holding the point, rejects footprints by bounding box, and only
+ * then runs an exact crossing number test against the vertices. Vertices and bounding boxes are
+ * kept in primitive arrays and the crossing test uses integer arithmetic, so a lookup allocates
+ * nothing and takes a few microseconds however many buildings there are.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class FootprintIndex {
+
+    // Average number of footprints per cell
+    private static final int FOOTPRINTS_PER_CELL = 2;
+
+    private final int[] ids;
+    // Vertices of footprint f are at [vertexStarts[f], vertexStarts[f + 1])
+    private final int[] vertexStarts;
+    private final int[] latitudesE6;
+    private final int[] longitudesE6;
+
+    private final int[] minLatsE6;
+    private final int[] minLngsE6;
+    private final int[] maxLatsE6;
+    private final int[] maxLngsE6;
+
+    private final int minLatE6;
+    private final int minLngE6;
+    private final int cellSizeE6;
+    private final int rows;
+    private final int columns;
+    // Footprints overlapping cell c are at [cellStarts[c], cellStarts[c + 1]) of cellFootprints
+    private final int[] cellStarts;
+    private final int[] cellFootprints;
+
+    /**
+     * @param ids
+     *            Id of each footprint, typically the location it belongs to
+     * @param vertexStarts
+     *            Index of the first vertex of each footprint, followed by the total number of vertices
+     * @param latitudesE6
+     *            Latitude of every vertex, footprint after footprint, each in order around its outline
+     * @param longitudesE6
+     *            Longitude of every vertex, in the same order
+     */
+    public FootprintIndex(int[] ids, int[] vertexStarts, int[] latitudesE6, int[] longitudesE6) {
+        int count = ids.length;
+        this.ids = ids;
+        this.vertexStarts = vertexStarts;
+        this.latitudesE6 = latitudesE6;
+        this.longitudesE6 = longitudesE6;
+
+        minLatsE6 = new int[count];
+        minLngsE6 = new int[count];
+        maxLatsE6 = new int[count];
+        maxLngsE6 = new int[count];
+        int minLat = Integer.MAX_VALUE, minLng = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE, maxLng = Integer.MIN_VALUE;
+        long boxSizes = 0;
+        for (int f = 0; f < count; f++) {
+            minLatsE6[f] = minLngsE6[f] = Integer.MAX_VALUE;
+            maxLatsE6[f] = maxLngsE6[f] = Integer.MIN_VALUE;
+            for (int v = vertexStarts[f]; v < vertexStarts[f + 1]; v++) {
+                minLatsE6[f] = Math.min(minLatsE6[f], latitudesE6[v]);
+                maxLatsE6[f] = Math.max(maxLatsE6[f], latitudesE6[v]);
+                minLngsE6[f] = Math.min(minLngsE6[f], longitudesE6[v]);
+                maxLngsE6[f] = Math.max(maxLngsE6[f], longitudesE6[v]);
+            }
+            minLat = Math.min(minLat, minLatsE6[f]);
+            maxLat = Math.max(maxLat, maxLatsE6[f]);
+            minLng = Math.min(minLng, minLngsE6[f]);
+            maxLng = Math.max(maxLng, maxLngsE6[f]);
+            boxSizes += Math.max((long) maxLatsE6[f] - minLatsE6[f], (long) maxLngsE6[f] - minLngsE6[f]);
+        }
+        if (count == 0) {
+            minLat = maxLat = minLng = maxLng = 0;
+        }
+
+        // Cells no smaller than a typical footprint, so each lands in a few at most
+        long latSpan = (long) maxLat - minLat + 1;
+        long lngSpan = (long) maxLng - minLng + 1;
+        int cellCount = Math.max(1, count / FOOTPRINTS_PER_CELL);
+        double cellSize = Math.sqrt((double) latSpan * lngSpan / cellCount);
+        if (count > 0) {
+            cellSize = Math.max(cellSize, (double) boxSizes / count);
+        }
+
+        this.minLatE6 = minLat;
+        this.minLngE6 = minLng;
+        this.cellSizeE6 = (int) Math.max(1, Math.ceil(cellSize));
+        this.rows = (int) ((latSpan - 1) / cellSizeE6) + 1;
+        this.columns = (int) ((lngSpan - 1) / cellSizeE6) + 1;
+
+        // Two passes, counting then filling, so the cells are packed into one array
+        cellStarts = new int[rows * columns + 1];
+        for (int f = 0; f < count; f++) {
+            for (int row = getRow(minLatsE6[f]); row <= getRow(maxLatsE6[f]); row++) {
+                for (int column = getColumn(minLngsE6[f]); column <= getColumn(maxLngsE6[f]); column++) {
+                    cellStarts[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < rows * columns; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellFootprints = new int[cellStarts[rows * columns]];
+        int[] next = new int[rows * columns];
+        System.arraycopy(cellStarts, 0, next, 0, next.length);
+        for (int f = 0; f < count; f++) {
+            for (int row = getRow(minLatsE6[f]); row <= getRow(maxLatsE6[f]); row++) {
+                for (int column = getColumn(minLngsE6[f]); column <= getColumn(maxLngsE6[f]); column++) {
+                    cellFootprints[next[row * columns + column]++] = f;
+                }
+            }
+        }
+    }
+
+    private int getRow(int latE6) {
+        return (int) (((long) latE6 - minLatE6) / cellSizeE6);
+    }
+
+    private int getColumn(int lngE6) {
+        return (int) (((long) lngE6 - minLngE6) / cellSizeE6);
+    }
+
+    /**
+     * @return The number of footprints in the index
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Finds the footprints a point is inside. Footprints may overlap, so there can be several.
+     *
+     * @param containing
+     *            Receives the ids of the footprints, as many as fit
+     * @return The number of ids written
+     */
+    public int getContaining(int latE6, int lngE6, int[] containing) {
+        if (latE6 < minLatE6 || lngE6 < minLngE6) {
+            return 0;
+        }
+        int row = getRow(latE6);
+        int column = getColumn(lngE6);
+        if (row >= rows || column >= columns) {
+            return 0;
+        }
+
+        int found = 0;
+        int cell = row * columns + column;
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1] && found < containing.length; i++) {
+            int f = cellFootprints[i];
+            if (latE6 >= minLatsE6[f] && latE6 <= maxLatsE6[f] && lngE6 >= minLngsE6[f] && lngE6 <= maxLngsE6[f]
+                    && isInside(f, latE6, lngE6)) {
+                containing[found++] = ids[f];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Crossing number test: a ray from the point eastwards crosses the outline an odd number of
+     * times if and only if the point is inside.
+     */
+    private boolean isInside(int f, int latE6, int lngE6) {
+        boolean inside = false;
+        int first = vertexStarts[f];
+        int last = vertexStarts[f + 1] - 1;
+        for (int i = first, j = last; i <= last; j = i++) {
+            long latI = latitudesE6[i];
+            long latJ = latitudesE6[j];
+            if ((latI > latE6) != (latJ > latE6)) {
+                // Whether the edge crosses the ray east of the point, without dividing
+                long dLat = latJ - latI;
+                long lhs = (lngE6 - (long) longitudesE6[i]) * dLat;
+                long rhs = ((long) longitudesE6[j] - longitudesE6[i]) * (latE6 - latI);
+                if (dLat > 0 ? lhs < rhs : lhs > rhs) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.jamesma.purdue.maps.geo;
+
+/**
+ * Distance and projection helpers for coordinates in microdegrees (degrees * 1E6), as used by GeoPoint.
+ * 
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public final class GeoMath {
+    
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    
+    // Length of one microdegree of latitude, and of longitude at the equator
+    private static final double METERS_PER_E6 = EARTH_RADIUS_METERS * Math.PI / 180 / 1e6;
+    
+    // Web Mercator stops here so the projected world is square
+    private static final double MAX_MERCATOR_LATITUDE = 85.05112878;
+    
+    private GeoMath() {}
+    
+    /**
+     * Great-circle distance between two points, using the haversine formula.
+     * 
+     * @return The distance in meters
+     */
+    public static double distanceMeters(int latE6a, int lngE6a, int latE6b, int lngE6b) {
+        double lat1 = Math.toRadians(latE6a / 1e6);
+        double lat2 = Math.toRadians(latE6b / 1e6);
+        double sinDLat = Math.sin((lat2 - lat1) / 2);
+        double sinDLng = Math.sin(Math.toRadians((lngE6b - lngE6a) / 1e6) / 2);
+        double h = sinDLat * sinDLat + Math.cos(lat1) * Math.cos(lat2) * sinDLng * sinDLng;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+    
+    /**
+     * @return The number of microdegrees of latitude spanning the distance
+     */
+    public static int metersToLatitudeE6(double meters) {
+        return (int) Math.ceil(meters / METERS_PER_E6);
+    }
+    
+    /**
+     * @return The number of microdegrees of longitude spanning the distance at the given latitude
+     */
+    public static int metersToLongitudeE6(double meters, int latE6) {
+        double cosLat = Math.cos(Math.toRadians(latE6 / 1e6));
+        return (int) Math.ceil(meters / (METERS_PER_E6 * Math.max(cosLat, 1e-6)));
+    }
+    
+    /**
+     * Web Mercator x of a longitude, the projection used by the map tiles.
+     * 
+     * @return 0 at 180 degrees west, increasing eastwards to 1 at 180 degrees east
+     */
+    public static double mercatorX(int lngE6) {
+        return (lngE6 / 1e6 + 180) / 360;
+    }
+    
+    /**
+     * Web Mercator y of a latitude, the projection used by the map tiles.
+     * 
+     * @return 0 at the north edge of the world, increasing southwards to 1
+     */
+    public static double mercatorY(int latE6) {
+        double lat = Math.max(-MAX_MERCATOR_LATITUDE, Math.min(MAX_MERCATOR_LATITUDE, latE6 / 1e6));
+        double sinLat = Math.sin(Math.toRadians(lat));
+        return 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+    }
+    
+    /**
+     * @return The longitude at a Web Mercator x, the inverse of {@link #mercatorX}
+     */
+    public static int mercatorToLongitudeE6(double x) {
+        return (int) Math.round((x * 360 - 180) * 1e6);
+    }
+    
+    /**
+     * @return The latitude at a Web Mercator y, the inverse of {@link #mercatorY}
+     */
+    public static int mercatorToLatitudeE6(double y) {
+        double lat = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+        return (int) Math.round(lat * 1e6);
+    }
+    
+}
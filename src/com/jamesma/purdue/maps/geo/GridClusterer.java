@@ -0,0 +1,193 @@
+package com.jamesma.purdue.maps.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups points that would be drawn close together on the map, for every zoom level.
+ *
+ * At each zoom level the projected world is cut into square cells of a fixed size in screen pixels,
+ * and the points falling into the same cell form a cluster. Cells are a power of two wide, so a cell
+ * at one zoom level is exactly four cells of the next one in, and the clusters of a zoom level are
+ * built by merging those of the next level in rather than by going over every point again. Clusters
+ * are computed on first use and kept for each zoom level.
+ *
+ * Instances are thread-safe, clusters can be built in the background and then read on the main thread.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class GridClusterer {
+
+    // Deepest zoom level of the map
+    public static final int MAX_ZOOM = 21;
+    // The world is 256 << zoom pixels wide at a zoom level
+    private static final int TILE_SIZE_BITS = 8;
+
+    private final int[] latitudesE6;
+    private final int[] longitudesE6;
+    private final int cellSizeBits;
+    private final Cluster[][] clustersByZoom = new Cluster[MAX_ZOOM + 1][];
+
+    /**
+     * A group of points, a single point when its count is 1.
+     */
+    public static class Cluster {
+        // Cell of the cluster at its zoom level
+        final int cellX;
+        final int cellY;
+
+        private final int firstPoint;
+        private final int count;
+        private final long latitudeSumE6;
+        private final long longitudeSumE6;
+        private final int minLatE6;
+        private final int minLngE6;
+        private final int maxLatE6;
+        private final int maxLngE6;
+
+        private Cluster(int cellX, int cellY, int firstPoint, int count, long latitudeSumE6, long longitudeSumE6,
+                int minLatE6, int minLngE6, int maxLatE6, int maxLngE6) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.firstPoint = firstPoint;
+            this.count = count;
+            this.latitudeSumE6 = latitudeSumE6;
+            this.longitudeSumE6 = longitudeSumE6;
+            this.minLatE6 = minLatE6;
+            this.minLngE6 = minLngE6;
+            this.maxLatE6 = maxLatE6;
+            this.maxLngE6 = maxLngE6;
+        }
+
+        /**
+         * @return The index of a point in the cluster, the only one when its count is 1
+         */
+        public int getFirstPoint() {
+            return firstPoint;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return The latitude of the centroid of the points
+         */
+        public int getLatitudeE6() {
+            return (int) (latitudeSumE6 / count);
+        }
+
+        /**
+         * @return The longitude of the centroid of the points
+         */
+        public int getLongitudeE6() {
+            return (int) (longitudeSumE6 / count);
+        }
+
+        public int getMinLatitudeE6() {
+            return minLatE6;
+        }
+
+        public int getMinLongitudeE6() {
+            return minLngE6;
+        }
+
+        public int getMaxLatitudeE6() {
+            return maxLatE6;
+        }
+
+        public int getMaxLongitudeE6() {
+            return maxLngE6;
+        }
+    }
+
+    /**
+     * @param latitudesE6
+     *            Latitude of each point
+     * @param longitudesE6
+     *            Longitude of each point, in the same order
+     * @param cellSizeBits
+     *            Cells are 1 << cellSizeBits screen pixels wide
+     */
+    public GridClusterer(int[] latitudesE6, int[] longitudesE6, int cellSizeBits) {
+        if (latitudesE6.length != longitudesE6.length) {
+            throw new IllegalArgumentException("Latitude and longitude counts differ");
+        }
+        this.latitudesE6 = latitudesE6;
+        this.longitudesE6 = longitudesE6;
+        this.cellSizeBits = cellSizeBits;
+    }
+
+    /**
+     * @return The number of points being clustered
+     */
+    public int size() {
+        return latitudesE6.length;
+    }
+
+    /**
+     * Returns the clusters of the points at a zoom level.
+     *
+     * @param zoom
+     *            The zoom level, clamped to [0, {@link #MAX_ZOOM}]
+     * @return The clusters in no particular order, not to be modified
+     */
+    public synchronized Cluster[] getClusters(int zoom) {
+        zoom = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        Cluster[] clusters = clustersByZoom[zoom];
+        if (clusters == null) {
+            // Cells of the next level in are half as wide, merge them by pairs along each axis
+            clusters = zoom == MAX_ZOOM ? clusterPoints() : merge(getClusters(zoom + 1), 1);
+            clustersByZoom[zoom] = clusters;
+        }
+        return clusters;
+    }
+
+    /**
+     * Cluster the points into the cells of the deepest zoom level.
+     */
+    private Cluster[] clusterPoints() {
+        double worldSize = 1L << (TILE_SIZE_BITS + MAX_ZOOM);
+        Cluster[] points = new Cluster[latitudesE6.length];
+        for (int i = 0; i < points.length; i++) {
+            int lat = latitudesE6[i];
+            int lng = longitudesE6[i];
+            int x = (int) (GeoMath.mercatorX(lng) * worldSize);
+            int y = (int) (GeoMath.mercatorY(lat) * worldSize);
+            points[i] = new Cluster(x, y, i, 1, lat, lng, lat, lng, lat, lng);
+        }
+        return merge(points, cellSizeBits);
+    }
+
+    /**
+     * Merge clusters whose cells fall into the same cell once shifted right by shift bits.
+     */
+    private static Cluster[] merge(Cluster[] clusters, int shift) {
+        Map<Long, Integer> cellIndexes = new HashMap<Long, Integer>(clusters.length * 2);
+        List<Cluster> merged = new ArrayList<Cluster>();
+        for (Cluster cluster : clusters) {
+            int cellX = cluster.cellX >> shift;
+            int cellY = cluster.cellY >> shift;
+            Long key = ((long) cellX << 32) | (cellY & 0xffffffffL);
+
+            Integer index = cellIndexes.get(key);
+            if (index == null) {
+                cellIndexes.put(key, merged.size());
+                merged.add(new Cluster(cellX, cellY, cluster.firstPoint, cluster.count,
+                        cluster.latitudeSumE6, cluster.longitudeSumE6,
+                        cluster.minLatE6, cluster.minLngE6, cluster.maxLatE6, cluster.maxLngE6));
+            } else {
+                Cluster other = merged.get(index);
+                merged.set(index, new Cluster(cellX, cellY, other.firstPoint, other.count + cluster.count,
+                        other.latitudeSumE6 + cluster.latitudeSumE6, other.longitudeSumE6 + cluster.longitudeSumE6,
+                        Math.min(other.minLatE6, cluster.minLatE6), Math.min(other.minLngE6, cluster.minLngE6),
+                        Math.max(other.maxLatE6, cluster.maxLatE6), Math.max(other.maxLngE6, cluster.maxLngE6)));
+            }
+        }
+        return merged.toArray(new Cluster[merged.size()]);
+    }
+
+}
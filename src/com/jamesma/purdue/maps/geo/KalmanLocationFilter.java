@@ -0,0 +1,169 @@
+package com.jamesma.purdue.maps.geo;
+
+/**
+ * Smooths a stream of noisy location fixes with a constant-velocity Kalman filter.
+ *
+ * Positions are tracked in meters east and north of the first fix, each axis by its own filter
+ * over position and velocity. The user is assumed to move at a steady velocity disturbed by
+ * random accelerations, and every fix is weighed by its reported accuracy, so a wild network fix
+ * barely moves the estimate while a tight GPS fix pulls it most of the way.
+ *
+ * The whole state is a handful of primitives, updating allocates nothing. Not thread safe.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class KalmanLocationFilter {
+
+    // Length of one microdegree of latitude
+    private static final double METERS_PER_E6 = GeoMath.EARTH_RADIUS_METERS * Math.PI / 180 / 1e6;
+    // After a gap this long the old estimate says little, start over from the next fix
+    private static final long MAX_GAP_MILLIS = 60 * 1000;
+    // Never trust a fix more than this, in meters
+    private static final float MIN_ACCURACY_METERS = 1;
+
+    // Variance of the random accelerations, in (m/s^2)^2, walking changes pace and direction gently
+    private final double accelerationVariance;
+
+    private boolean initialized = false;
+    private int originLatE6;
+    private int originLngE6;
+    private double metersPerLngE6;
+    private long timeMillis;
+
+    // Per axis: position (m), velocity (m/s) and the covariance of the two
+    private double east;
+    private double eastVelocity;
+    private double eastP00;
+    private double eastP01;
+    private double eastP11;
+    private double north;
+    private double northVelocity;
+    private double northP00;
+    private double northP01;
+    private double northP11;
+
+    /**
+     * @param accelerationVariance
+     *            How erratically the user is expected to move, in (m/s^2)^2
+     */
+    public KalmanLocationFilter(double accelerationVariance) {
+        this.accelerationVariance = accelerationVariance;
+    }
+
+    /**
+     * Fold a fix into the estimate. Fixes older than the last one are ignored.
+     *
+     * @param accuracyMeters
+     *            The reported accuracy of the fix, the standard deviation of its error
+     * @param timeMillis
+     *            When the fix was taken
+     */
+    public void update(int latE6, int lngE6, float accuracyMeters, long timeMillis) {
+        double variance = Math.max(accuracyMeters, MIN_ACCURACY_METERS);
+        variance *= variance;
+
+        long dtMillis = timeMillis - this.timeMillis;
+        if (!initialized || dtMillis > MAX_GAP_MILLIS) {
+            reset(latE6, lngE6, variance, timeMillis);
+            return;
+        }
+        if (dtMillis < 0) {
+            return;
+        }
+
+        double dt = dtMillis / 1000.0;
+        double q = accelerationVariance;
+        double q00 = dt * dt * dt * dt / 4 * q;
+        double q01 = dt * dt * dt / 2 * q;
+        double q11 = dt * dt * q;
+
+        // Predict: move at the estimated velocity, growing less certain
+        east += eastVelocity * dt;
+        eastP00 += 2 * dt * eastP01 + dt * dt * eastP11 + q00;
+        eastP01 += dt * eastP11 + q01;
+        eastP11 += q11;
+        north += northVelocity * dt;
+        northP00 += 2 * dt * northP01 + dt * dt * northP11 + q00;
+        northP01 += dt * northP11 + q01;
+        northP11 += q11;
+
+        // Correct: pull towards the fix by how much it is trusted relative to the prediction
+        double eastGain0 = eastP00 / (eastP00 + variance);
+        double eastGain1 = eastP01 / (eastP00 + variance);
+        double eastResidual = (lngE6 - originLngE6) * metersPerLngE6 - east;
+        east += eastGain0 * eastResidual;
+        eastVelocity += eastGain1 * eastResidual;
+        eastP11 -= eastGain1 * eastP01;
+        eastP01 *= 1 - eastGain0;
+        eastP00 *= 1 - eastGain0;
+
+        double northGain0 = northP00 / (northP00 + variance);
+        double northGain1 = northP01 / (northP00 + variance);
+        double northResidual = (latE6 - originLatE6) * METERS_PER_E6 - north;
+        north += northGain0 * northResidual;
+        northVelocity += northGain1 * northResidual;
+        northP11 -= northGain1 * northP01;
+        northP01 *= 1 - northGain0;
+        northP00 *= 1 - northGain0;
+
+        this.timeMillis = timeMillis;
+    }
+
+    private void reset(int latE6, int lngE6, double variance, long timeMillis) {
+        originLatE6 = latE6;
+        originLngE6 = lngE6;
+        metersPerLngE6 = METERS_PER_E6 * Math.cos(Math.toRadians(latE6 / 1e6));
+        this.timeMillis = timeMillis;
+
+        // At the fix, standing still as far as we know
+        east = 0;
+        north = 0;
+        eastVelocity = 0;
+        northVelocity = 0;
+        eastP00 = variance;
+        northP00 = variance;
+        eastP01 = 0;
+        northP01 = 0;
+        eastP11 = accelerationVariance;
+        northP11 = accelerationVariance;
+        initialized = true;
+    }
+
+    /**
+     * @return Whether there has been a fix to estimate from
+     */
+    public boolean hasEstimate() {
+        return initialized;
+    }
+
+    public int getLatitudeE6() {
+        return originLatE6 + (int) Math.round(north / METERS_PER_E6);
+    }
+
+    public int getLongitudeE6() {
+        return originLngE6 + (int) Math.round(east / metersPerLngE6);
+    }
+
+    /**
+     * @return The standard deviation of the estimate's error, in meters
+     */
+    public float getAccuracyMeters() {
+        return (float) Math.sqrt(Math.max(eastP00, northP00));
+    }
+
+    /**
+     * @return The estimated speed, in meters per second
+     */
+    public float getSpeed() {
+        return (float) Math.sqrt(eastVelocity * eastVelocity + northVelocity * northVelocity);
+    }
+
+    /**
+     * @return When the last fix folded in was taken
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+}
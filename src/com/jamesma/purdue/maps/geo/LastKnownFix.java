@@ -0,0 +1,62 @@
+package com.jamesma.purdue.maps.geo;
+
+/**
+ * The most recent location fix of the user, shared within the process so ranking by distance
+ * never has to wait for or ask the location service.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public final class LastKnownFix {
+
+    private static volatile LastKnownFix sLatest;
+
+    private final int latE6;
+    private final int lngE6;
+    private final long timeMillis;
+
+    private LastKnownFix(int latE6, int lngE6, long timeMillis) {
+        this.latE6 = latE6;
+        this.lngE6 = lngE6;
+        this.timeMillis = timeMillis;
+    }
+
+    /**
+     * Remember a fix, unless a newer one is already known.
+     *
+     * @param timeMillis
+     *            When the fix was taken, in milliseconds since the epoch
+     */
+    public static synchronized void update(int latE6, int lngE6, long timeMillis) {
+        LastKnownFix latest = sLatest;
+        if (latest == null || timeMillis >= latest.timeMillis) {
+            sLatest = new LastKnownFix(latE6, lngE6, timeMillis);
+        }
+    }
+
+    /**
+     * @param maxAgeMillis
+     *            How old a fix may be and still be worth using
+     * @return The latest fix, or null if there is none or it is too old
+     */
+    public static LastKnownFix get(long maxAgeMillis) {
+        LastKnownFix latest = sLatest;
+        if (latest == null || System.currentTimeMillis() - latest.timeMillis > maxAgeMillis) {
+            return null;
+        }
+        return latest;
+    }
+
+    public int getLatitudeE6() {
+        return latE6;
+    }
+
+    public int getLongitudeE6() {
+        return lngE6;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+}
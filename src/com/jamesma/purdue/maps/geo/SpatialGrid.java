@@ -0,0 +1,297 @@
+package com.jamesma.purdue.maps.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jamesma.purdue.maps.search.CampusLocation;
+
+/**
+ * An immutable uniform grid over location coordinates, for bounding box, radius and nearest lookups.
+ *
+ * The bounding box of all locations is cut into roughly square cells sized to hold a few
+ * locations each. Locations are stored grouped by cell, with their coordinates copied into
+ * primitive arrays in the same order, so a lookup only visits the cells overlapping the
+ * query and scans their coordinates sequentially.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class SpatialGrid {
+
+    // Average number of locations per cell
+    private static final int LOCATIONS_PER_CELL = 4;
+
+    private final int minLatE6;
+    private final int minLngE6;
+    private final int cellHeightE6;
+    private final int cellWidthE6;
+    private final int rows;
+    private final int columns;
+
+    // Locations of cell c are at [cellStarts[c], cellStarts[c + 1])
+    private final int[] cellStarts;
+    private final CampusLocation[] mLocations;
+    private final int[] latitudesE6;
+    private final int[] longitudesE6;
+
+    public SpatialGrid(List<CampusLocation> locations) {
+        int count = locations.size();
+
+        int minLat = Integer.MAX_VALUE, minLng = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE, maxLng = Integer.MIN_VALUE;
+        for (CampusLocation location : locations) {
+            minLat = Math.min(minLat, location.getLatitudeE6());
+            maxLat = Math.max(maxLat, location.getLatitudeE6());
+            minLng = Math.min(minLng, location.getLongitudeE6());
+            maxLng = Math.max(maxLng, location.getLongitudeE6());
+        }
+        if (count == 0) {
+            minLat = maxLat = minLng = maxLng = 0;
+        }
+
+        // Square cells in microdegrees are close enough to square on the ground at campus scale
+        long latSpan = (long) maxLat - minLat + 1;
+        long lngSpan = (long) maxLng - minLng + 1;
+        int cellCount = Math.max(1, count / LOCATIONS_PER_CELL);
+        int cellSize = (int) Math.max(1, Math.ceil(Math.sqrt((double) latSpan * lngSpan / cellCount)));
+
+        this.minLatE6 = minLat;
+        this.minLngE6 = minLng;
+        this.cellHeightE6 = cellSize;
+        this.cellWidthE6 = cellSize;
+        this.rows = (int) Math.max(1, (latSpan + cellSize - 1) / cellSize);
+        this.columns = (int) Math.max(1, (lngSpan + cellSize - 1) / cellSize);
+
+        // Counting sort of the locations by cell
+        int[] cells = new int[count];
+        cellStarts = new int[rows * columns + 1];
+        for (int i = 0; i < count; i++) {
+            CampusLocation location = locations.get(i);
+            cells[i] = getRow(location.getLatitudeE6()) * columns + getColumn(location.getLongitudeE6());
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < rows * columns; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+
+        mLocations = new CampusLocation[count];
+        latitudesE6 = new int[count];
+        longitudesE6 = new int[count];
+        int[] next = new int[rows * columns];
+        System.arraycopy(cellStarts, 0, next, 0, next.length);
+        for (int i = 0; i < count; i++) {
+            int slot = next[cells[i]]++;
+            CampusLocation location = locations.get(i);
+            mLocations[slot] = location;
+            latitudesE6[slot] = location.getLatitudeE6();
+            longitudesE6[slot] = location.getLongitudeE6();
+        }
+    }
+
+    private int getRow(int latE6) {
+        long row = ((long) latE6 - minLatE6) / cellHeightE6;
+        return (int) Math.max(0, Math.min(rows - 1, row));
+    }
+
+    private int getColumn(int lngE6) {
+        long column = ((long) lngE6 - minLngE6) / cellWidthE6;
+        return (int) Math.max(0, Math.min(columns - 1, column));
+    }
+
+    /**
+     * @return The number of locations in the grid
+     */
+    public int size() {
+        return mLocations.length;
+    }
+
+    /**
+     * Returns the locations inside a bounding box, edges included.
+     *
+     * @return The locations inside the box, in no particular order
+     */
+    public List<CampusLocation> getWithinBox(int minLatE6, int minLngE6, int maxLatE6, int maxLngE6) {
+        List<CampusLocation> matches = new ArrayList<CampusLocation>();
+        if (mLocations.length == 0 || minLatE6 > maxLatE6 || minLngE6 > maxLngE6) {
+            return matches;
+        }
+
+        int fromRow = getRow(minLatE6), toRow = getRow(maxLatE6);
+        int fromColumn = getColumn(minLngE6), toColumn = getColumn(maxLngE6);
+        for (int row = fromRow; row <= toRow; row++) {
+            // Cells of a row are contiguous, scan them in one run
+            int from = cellStarts[row * columns + fromColumn];
+            int to = cellStarts[row * columns + toColumn + 1];
+            for (int i = from; i < to; i++) {
+                int lat = latitudesE6[i];
+                int lng = longitudesE6[i];
+                if (lat >= minLatE6 && lat <= maxLatE6 && lng >= minLngE6 && lng <= maxLngE6) {
+                    matches.add(mLocations[i]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the locations within a great-circle distance of a point.
+     *
+     * @return The locations within the radius, in no particular order
+     */
+    public List<CampusLocation> getWithinRadius(int latE6, int lngE6, double radiusMeters) {
+        int latDelta = GeoMath.metersToLatitudeE6(radiusMeters);
+        int lngDelta = GeoMath.metersToLongitudeE6(radiusMeters, Math.abs(latE6) + latDelta);
+
+        // Prefilter with the enclosing box, then check the exact distance
+        List<CampusLocation> candidates = getWithinBox(
+                clamp((long) latE6 - latDelta), clamp((long) lngE6 - lngDelta),
+                clamp((long) latE6 + latDelta), clamp((long) lngE6 + lngDelta));
+
+        List<CampusLocation> matches = new ArrayList<CampusLocation>(candidates.size());
+        for (CampusLocation location : candidates) {
+            if (GeoMath.distanceMeters(latE6, lngE6, location.getLatitudeE6(), location.getLongitudeE6()) <= radiusMeters) {
+                matches.add(location);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the locations closest to a point by great-circle distance.
+     *
+     * Rings of cells are searched outwards from the cell of the point, keeping the k closest
+     * locations seen so far. Once the k-th closest is nearer than anything outside the searched
+     * square could be, no further ring can improve on it and we stop.
+     *
+     * @param k
+     *            The number of locations to return
+     * @return The closest locations, nearest first
+     */
+    public List<CampusLocation> getNearest(int latE6, int lngE6, int k) {
+        List<CampusLocation> nearest = new ArrayList<CampusLocation>();
+        if (k <= 0 || mLocations.length == 0) {
+            return nearest;
+        }
+
+        // Max-heap of the k closest so far, the farthest of them at the root
+        double[] distances = new double[Math.min(k, mLocations.length)];
+        int[] slots = new int[distances.length];
+        int size = 0;
+
+        int centerRow = getRow(latE6);
+        int centerColumn = getColumn(lngE6);
+        int maxRing = Math.max(Math.max(centerRow, rows - 1 - centerRow), Math.max(centerColumn, columns - 1 - centerColumn));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int fromRow = Math.max(0, centerRow - ring), toRow = Math.min(rows - 1, centerRow + ring);
+            int fromColumn = Math.max(0, centerColumn - ring), toColumn = Math.min(columns - 1, centerColumn + ring);
+            for (int row = fromRow; row <= toRow; row++) {
+                // Inner rows of the ring only have their two end cells on the ring
+                boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                for (int column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+                    if (column < fromColumn || column > toColumn) {
+                        continue;
+                    }
+                    int cell = row * columns + column;
+                    for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                        double distance = GeoMath.distanceMeters(latE6, lngE6, latitudesE6[i], longitudesE6[i]);
+                        if (size < distances.length) {
+                            distances[size] = distance;
+                            slots[size] = i;
+                            siftUp(distances, slots, size++);
+                        } else if (distance < distances[0]) {
+                            distances[0] = distance;
+                            slots[0] = i;
+                            siftDown(distances, slots, size);
+                        }
+                    }
+                }
+            }
+
+            if (size == distances.length && distances[0] <= getDistanceOutsideRing(latE6, lngE6, centerRow, centerColumn, ring)) {
+                break;
+            }
+        }
+
+        // Pop the heap farthest first into the back of the result
+        CampusLocation[] sorted = new CampusLocation[size];
+        while (size > 0) {
+            sorted[size - 1] = mLocations[slots[0]];
+            size--;
+            distances[0] = distances[size];
+            slots[0] = slots[size];
+            siftDown(distances, slots, size);
+        }
+        for (CampusLocation location : sorted) {
+            nearest.add(location);
+        }
+        return nearest;
+    }
+
+    /**
+     * A lower bound on the distance from a point to any location outside a ring of cells
+     * and everything inside it, 0 if the point isn't inside the square.
+     */
+    private double getDistanceOutsideRing(int latE6, int lngE6, int centerRow, int centerColumn, int ring) {
+        long minLat = minLatE6 + (long) (centerRow - ring) * cellHeightE6;
+        long maxLat = minLatE6 + (long) (centerRow + ring + 1) * cellHeightE6;
+        long minLng = minLngE6 + (long) (centerColumn - ring) * cellWidthE6;
+        long maxLng = minLngE6 + (long) (centerColumn + ring + 1) * cellWidthE6;
+        long latGap = Math.min(latE6 - minLat, maxLat - latE6);
+        long lngGap = Math.min(lngE6 - minLng, maxLng - lngE6);
+        if (latGap <= 0 || lngGap <= 0) {
+            return 0;
+        }
+
+        // Longitude gaps shrink towards the poles, measure them at the latitude farthest from the equator
+        int poleward = clamp(Math.max(Math.abs(minLat), Math.abs(maxLat)));
+        double latMeters = GeoMath.distanceMeters(0, 0, clamp(latGap), 0);
+        double lngMeters = GeoMath.distanceMeters(poleward, 0, poleward, clamp(lngGap));
+        return Math.min(latMeters, lngMeters);
+    }
+
+    private static void siftUp(double[] distances, int[] slots, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (distances[parent] >= distances[i]) {
+                break;
+            }
+            swap(distances, slots, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] distances, int[] slots, int size) {
+        int i = 0;
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && distances[left] > distances[largest]) {
+                largest = left;
+            }
+            if (right < size && distances[right] > distances[largest]) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            swap(distances, slots, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(double[] distances, int[] slots, int i, int j) {
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+        int slot = slots[i];
+        slots[i] = slots[j];
+        slots[j] = slot;
+    }
+
+    private static int clamp(long e6) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, e6));
+    }
+
+}
@@ -0,0 +1,365 @@
+package com.jamesma.purdue.maps.route;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jamesma.purdue.maps.geo.GeoMath;
+
+/**
+ * An immutable graph of campus walkways for finding walking routes.
+ *
+ * Walkways are undirected. The edges of every node are stored contiguously in primitive arrays,
+ * compressed sparse row style, so a search touches no objects per node or edge.
+ *
+ * Routes are found with A*. Besides the straight line distance to the target, the heuristic uses
+ * the walking distances from a few landmark nodes computed once up front: by the triangle
+ * inequality a node can't be closer to the target than the difference of their distances to a
+ * landmark. This bound follows the shape of the walkways, so far fewer nodes are expanded on long
+ * routes that have to go around things than with the straight line alone.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class WalkwayGraph {
+
+    // Landmarks to compute distances from, more tighten the bound but cost memory and setup time
+    private static final int MAX_LANDMARKS = 4;
+
+    private final int[] latitudesE6;
+    private final int[] longitudesE6;
+
+    // Edges of node i are at [edgeStarts[i], edgeStarts[i + 1])
+    private final int[] edgeStarts;
+    private final int[] edgeTargets;
+    private final float[] edgeLengths;
+
+    // Walking distance from each landmark to every node, infinite if unreachable
+    private final float[][] landmarkDistances;
+
+    /**
+     * A walking route between two nodes.
+     */
+    public static class Route {
+        private final int[] nodes;
+        private final float[] distancesMeters;
+        private final int expandedNodes;
+
+        private Route(int[] nodes, float[] distancesMeters, int expandedNodes) {
+            this.nodes = nodes;
+            this.distancesMeters = distancesMeters;
+            this.expandedNodes = expandedNodes;
+        }
+
+        /**
+         * @return The nodes along the route, from the start to the target
+         */
+        public int[] getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return The walking distance from the start to each of {@link #getNodes()}
+         */
+        public float[] getDistancesMeters() {
+            return distancesMeters;
+        }
+
+        public double getLengthMeters() {
+            return distancesMeters[distancesMeters.length - 1];
+        }
+
+        /**
+         * @return The number of nodes the search expanded to find the route
+         */
+        public int getExpandedNodes() {
+            return expandedNodes;
+        }
+    }
+
+    /**
+     * @param nodeIds
+     *            Id of each node, as referred to by the edges
+     * @param latitudesE6
+     *            Latitude of each node, in the same order
+     * @param longitudesE6
+     *            Longitude of each node, in the same order
+     * @param edgeFrom
+     *            Node id at one end of each walkway
+     * @param edgeTo
+     *            Node id at the other end of each walkway
+     * @param lengthsMeters
+     *            Walking length of each walkway, at least the straight line distance between its ends
+     */
+    public WalkwayGraph(int[] nodeIds, int[] latitudesE6, int[] longitudesE6,
+            int[] edgeFrom, int[] edgeTo, float[] lengthsMeters) {
+        int nodeCount = nodeIds.length;
+        this.latitudesE6 = latitudesE6;
+        this.longitudesE6 = longitudesE6;
+
+        Map<Integer, Integer> indexes = new HashMap<Integer, Integer>(nodeCount * 2);
+        for (int i = 0; i < nodeCount; i++) {
+            indexes.put(nodeIds[i], i);
+        }
+        int[] from = new int[edgeFrom.length];
+        int[] to = new int[edgeTo.length];
+        for (int e = 0; e < from.length; e++) {
+            from[e] = getIndex(indexes, edgeFrom[e]);
+            to[e] = getIndex(indexes, edgeTo[e]);
+        }
+
+        // Counting sort of both directions of every walkway by their source node
+        edgeStarts = new int[nodeCount + 1];
+        for (int e = 0; e < from.length; e++) {
+            edgeStarts[from[e] + 1]++;
+            edgeStarts[to[e] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            edgeStarts[i + 1] += edgeStarts[i];
+        }
+        edgeTargets = new int[2 * from.length];
+        edgeLengths = new float[2 * from.length];
+        int[] next = new int[nodeCount];
+        System.arraycopy(edgeStarts, 0, next, 0, nodeCount);
+        for (int e = 0; e < from.length; e++) {
+            int forward = next[from[e]]++;
+            edgeTargets[forward] = to[e];
+            edgeLengths[forward] = lengthsMeters[e];
+            int backward = next[to[e]]++;
+            edgeTargets[backward] = from[e];
+            edgeLengths[backward] = lengthsMeters[e];
+        }
+
+        landmarkDistances = computeLandmarkDistances();
+    }
+
+    private static int getIndex(Map<Integer, Integer> indexes, int nodeId) {
+        Integer index = indexes.get(nodeId);
+        if (index == null) {
+            throw new IllegalArgumentException("Walkway to unknown node " + nodeId);
+        }
+        return index;
+    }
+
+    /**
+     * Pick landmarks spread around the edge of the graph, each the node farthest from those
+     * picked so far, and compute the distances from them.
+     */
+    private float[][] computeLandmarkDistances() {
+        int nodeCount = latitudesE6.length;
+        int landmarkCount = Math.min(MAX_LANDMARKS, nodeCount);
+        float[][] distances = new float[landmarkCount][];
+        if (landmarkCount == 0) {
+            return distances;
+        }
+
+        // Start from the node farthest from an arbitrary one
+        float[] closest = getDistancesFrom(0);
+        for (int l = 0; l < landmarkCount; l++) {
+            int landmark = 0;
+            for (int i = 1; i < nodeCount; i++) {
+                // Unreachable nodes make useless landmarks
+                if (closest[i] != Float.POSITIVE_INFINITY
+                        && (closest[landmark] == Float.POSITIVE_INFINITY || closest[i] > closest[landmark])) {
+                    landmark = i;
+                }
+            }
+
+            distances[l] = getDistancesFrom(landmark);
+            for (int i = 0; i < nodeCount; i++) {
+                closest[i] = l == 0 ? distances[l][i] : Math.min(closest[i], distances[l][i]);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Dijkstra's algorithm from a node to every other node.
+     */
+    private float[] getDistancesFrom(int source) {
+        float[] distances = new float[latitudesE6.length];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        distances[source] = 0;
+
+        LongHeap open = new LongHeap();
+        open.push(getEntry(0, source));
+        while (!open.isEmpty()) {
+            long entry = open.pop();
+            int node = getNode(entry);
+            if (getKey(entry) > distances[node]) {
+                continue;
+            }
+            for (int e = edgeStarts[node]; e < edgeStarts[node + 1]; e++) {
+                float distance = distances[node] + edgeLengths[e];
+                if (distance < distances[edgeTargets[e]]) {
+                    distances[edgeTargets[e]] = distance;
+                    open.push(getEntry(distance, edgeTargets[e]));
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return The number of nodes in the graph
+     */
+    public int size() {
+        return latitudesE6.length;
+    }
+
+    public int getLatitudeE6(int node) {
+        return latitudesE6[node];
+    }
+
+    public int getLongitudeE6(int node) {
+        return longitudesE6[node];
+    }
+
+    /**
+     * @return The node closest to a point, or -1 if the graph is empty
+     */
+    public int getNearestNode(int latE6, int lngE6) {
+        int nearest = -1;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < latitudesE6.length; i++) {
+            double distance = GeoMath.distanceMeters(latE6, lngE6, latitudesE6[i], longitudesE6[i]);
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds the shortest walking route between two nodes. Safe to call from several threads at once.
+     *
+     * @return The route, or null if the target can't be reached from the start
+     */
+    public Route findRoute(int start, int target) {
+        int nodeCount = latitudesE6.length;
+        float[] distances = new float[nodeCount];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        int[] previous = new int[nodeCount];
+        boolean[] closed = new boolean[nodeCount];
+        int expanded = 0;
+
+        distances[start] = 0;
+        previous[start] = -1;
+        LongHeap open = new LongHeap();
+        open.push(getEntry(getLowerBound(start, target), start));
+        while (!open.isEmpty()) {
+            int node = getNode(open.pop());
+            if (closed[node]) {
+                continue;
+            }
+            if (node == target) {
+                return buildRoute(previous, distances, target, expanded);
+            }
+            closed[node] = true;
+            expanded++;
+
+            for (int e = edgeStarts[node]; e < edgeStarts[node + 1]; e++) {
+                int neighbor = edgeTargets[e];
+                float distance = distances[node] + edgeLengths[e];
+                if (!closed[neighbor] && distance < distances[neighbor]) {
+                    distances[neighbor] = distance;
+                    previous[neighbor] = node;
+                    open.push(getEntry(distance + getLowerBound(neighbor, target), neighbor));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A lower bound on the walking distance between two nodes, the A* heuristic.
+     */
+    private float getLowerBound(int node, int target) {
+        float bound = (float) GeoMath.distanceMeters(
+                latitudesE6[node], longitudesE6[node], latitudesE6[target], longitudesE6[target]);
+        for (float[] fromLandmark : landmarkDistances) {
+            float difference = Math.abs(fromLandmark[target] - fromLandmark[node]);
+            // Infinite or NaN when either can't reach the landmark, which tells us nothing
+            if (difference > bound && difference != Float.POSITIVE_INFINITY) {
+                bound = difference;
+            }
+        }
+        return bound;
+    }
+
+    private static Route buildRoute(int[] previous, float[] distances, int target, int expanded) {
+        int count = 0;
+        for (int node = target; node != -1; node = previous[node]) {
+            count++;
+        }
+        int[] nodes = new int[count];
+        float[] routeDistances = new float[count];
+        for (int node = target; node != -1; node = previous[node]) {
+            nodes[--count] = node;
+            routeDistances[count] = distances[node];
+        }
+        return new Route(nodes, routeDistances, expanded);
+    }
+
+    /**
+     * Heap entries pack a non-negative float key above the node, so they order by key.
+     */
+    private static long getEntry(float key, int node) {
+        return ((long) Float.floatToIntBits(key) << 32) | node;
+    }
+
+    private static float getKey(long entry) {
+        return Float.intBitsToFloat((int) (entry >>> 32));
+    }
+
+    private static int getNode(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * A growable binary min-heap of primitive longs.
+     */
+    private static class LongHeap {
+        private long[] values = new long[16];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == values.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            int i = size++;
+            while (i > 0 && values[(i - 1) / 2] > value) {
+                values[i] = values[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            values[i] = value;
+        }
+
+        long pop() {
+            long top = values[0];
+            long last = values[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && values[child + 1] < values[child]) {
+                    child++;
+                }
+                if (values[child] >= last) {
+                    break;
+                }
+                values[i] = values[child];
+                i = child;
+            }
+            values[i] = last;
+            return top;
+        }
+    }
+
+}
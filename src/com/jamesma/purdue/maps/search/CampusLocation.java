@@ -0,0 +1,86 @@
+package com.jamesma.purdue.maps.search;
+
+/**
+ * A single row of the campus locations table, held in memory.
+ * 
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class CampusLocation {
+    
+    // A street address starts with its street, which is all a suggestion has room for
+    private static final char ADDRESS_PART_SEPARATOR = ',';
+    
+    private final int id;
+    private final String name;
+    private final String abbreviation;
+    private final int latitudeE6;
+    private final int longitudeE6;
+    private final String address;
+    private final String subtitle;
+
+    public CampusLocation(int id, String name, String abbreviation, int latitudeE6, int longitudeE6, String address, 
+            String subtitle) {
+        this.id = id;
+        this.name = name;
+        this.abbreviation = abbreviation;
+        this.latitudeE6 = latitudeE6;
+        this.longitudeE6 = longitudeE6;
+        this.address = address;
+        this.subtitle = subtitle;
+    }
+    
+    public int getId() {
+        return this.id;
+    }
+    
+    public String getName() {
+        return this.name;
+    }
+    
+    public String getAbbreviation() {
+        return this.abbreviation;
+    }
+    
+    /**
+     * @return The latitude in microdegrees (degrees * 1E6)
+     */
+    public int getLatitudeE6() {
+        return this.latitudeE6;
+    }
+    
+    /**
+     * @return The longitude in microdegrees (degrees * 1E6)
+     */
+    public int getLongitudeE6() {
+        return this.longitudeE6;
+    }
+    
+    public String getAddress() {
+        return this.address;
+    }
+    
+    /**
+     * @return The line shown under the name in suggestions, or null if there is nothing to show
+     */
+    public String getSubtitle() {
+        return this.subtitle;
+    }
+    
+    /**
+     * The subtitle stored with a location when it is written to the database: its abbreviation, 
+     * or its street when it has none.
+     * 
+     * @param abbreviation
+     * @param address
+     * @return The subtitle, or null if the location has neither
+     */
+    public static String getSubtitle(String abbreviation, String address) {
+        if (abbreviation != null || address == null) {
+            return abbreviation;
+        }
+        int end = address.indexOf(ADDRESS_PART_SEPARATOR);
+        return end == -1 ? address : address.substring(0, end);
+    }
+
+}
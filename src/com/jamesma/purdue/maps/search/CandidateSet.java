@@ -0,0 +1,109 @@
+package com.jamesma.purdue.maps.search;
+
+/**
+ * The match set of a query in compact form: the id, search key and coordinates of every match in
+ * parallel arrays. That is all it takes to narrow the set down to a longer query and to rank it,
+ * by how the query matched or by distance, without reading the locations themselves.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class CandidateSet {
+
+    private int[] ids;
+    private String[] searchKeys;
+    private int[] latitudesE6;
+    private int[] longitudesE6;
+    private int size = 0;
+
+    /**
+     * @param capacity
+     *            The number of candidates expected, the set grows past it if needed
+     */
+    public CandidateSet(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        searchKeys = new String[capacity];
+        latitudesE6 = new int[capacity];
+        longitudesE6 = new int[capacity];
+    }
+
+    /**
+     * Add a candidate to the set.
+     *
+     * @param id
+     *            The rowid of the location
+     * @param searchKey
+     *            The lowercased search key of the location, see WordMatchQueries#getSearchKey(String, String)
+     * @param latE6
+     * @param lngE6
+     */
+    public void add(int id, String searchKey, int latE6, int lngE6) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        searchKeys[size] = searchKey;
+        latitudesE6[size] = latE6;
+        longitudesE6[size] = lngE6;
+        size++;
+    }
+
+    /**
+     * Returns the candidates that still match a query extending the one this set matched.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @return The candidates whose search key contains the query, in the same order
+     */
+    public CandidateSet narrow(String query) {
+        CandidateSet narrowed = new CandidateSet(Math.min(size, 16));
+        for (int i = 0; i < size; i++) {
+            if (searchKeys[i].indexOf(query) >= 0) {
+                narrowed.add(ids[i], searchKeys[i], latitudesE6[i], longitudesE6[i]);
+            }
+        }
+        return narrowed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public String getSearchKey(int i) {
+        return searchKeys[i];
+    }
+
+    public int getLatitudeE6(int i) {
+        return latitudesE6[i];
+    }
+
+    public int getLongitudeE6(int i) {
+        return longitudesE6[i];
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+
+        int[] grownIds = new int[capacity];
+        System.arraycopy(ids, 0, grownIds, 0, size);
+        ids = grownIds;
+
+        String[] grownKeys = new String[capacity];
+        System.arraycopy(searchKeys, 0, grownKeys, 0, size);
+        searchKeys = grownKeys;
+
+        int[] grownLatitudes = new int[capacity];
+        System.arraycopy(latitudesE6, 0, grownLatitudes, 0, size);
+        latitudesE6 = grownLatitudes;
+
+        int[] grownLongitudes = new int[capacity];
+        System.arraycopy(longitudesE6, 0, grownLongitudes, 0, size);
+        longitudesE6 = grownLongitudes;
+    }
+
+}
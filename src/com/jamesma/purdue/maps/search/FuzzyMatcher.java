@@ -0,0 +1,314 @@
+package com.jamesma.purdue.maps.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Typo-tolerant search over the words of location names and abbreviations.
+ *
+ * Every distinct word is indexed by its trigrams. A query word can only be within k edits of
+ * a word if they share enough trigrams, so the trigram postings pull a small candidate set that
+ * is then verified with an edit distance computation bounded by k. A location matches when every
+ * word of the query is within its edit budget of one of the location's words. The last query word
+ * may still be being typed, so it only has to be close to the start of a word.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class FuzzyMatcher {
+
+    private static final int GRAM_LENGTH = 3;
+    private static final char WORD_BOUNDARY = '$';
+
+    private final CampusLocation[] mLocations;
+    private final String[] mWords;
+    private final int[][] mWordLocations;
+    private final Map<String, int[]> mGramWords;
+
+    public FuzzyMatcher(List<CampusLocation> locations) {
+        mLocations = locations.toArray(new CampusLocation[locations.size()]);
+
+        // Collect distinct words and the locations they appear in
+        Map<String, Integer> wordIds = new HashMap<String, Integer>();
+        List<String> words = new ArrayList<String>();
+        List<IntList> wordLocations = new ArrayList<IntList>();
+        for (int i = 0; i < mLocations.length; i++) {
+            List<String> locationWords = splitWords(mLocations[i].getName());
+            locationWords.addAll(splitWords(mLocations[i].getAbbreviation()));
+            for (String word : locationWords) {
+                Integer id = wordIds.get(word);
+                if (id == null) {
+                    id = words.size();
+                    wordIds.put(word, id);
+                    words.add(word);
+                    wordLocations.add(new IntList());
+                }
+                IntList postings = wordLocations.get(id);
+                if (postings.size == 0 || postings.get(postings.size - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+
+        mWords = words.toArray(new String[words.size()]);
+        mWordLocations = new int[mWords.length][];
+        for (int i = 0; i < mWords.length; i++) {
+            mWordLocations[i] = wordLocations.get(i).toArray();
+        }
+
+        // Index every word by its trigrams
+        Map<String, IntList> gramWords = new HashMap<String, IntList>();
+        for (int i = 0; i < mWords.length; i++) {
+            for (String gram : getGrams(mWords[i])) {
+                IntList postings = gramWords.get(gram);
+                if (postings == null) {
+                    postings = new IntList();
+                    gramWords.put(gram, postings);
+                }
+                if (postings.size == 0 || postings.get(postings.size - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+
+        mGramWords = new HashMap<String, int[]>(gramWords.size() * 2);
+        for (Map.Entry<String, IntList> entry : gramWords.entrySet()) {
+            mGramWords.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    /**
+     * Returns the best locations approximately matching the query, fewest edits first.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of locations to return
+     * @return The matching locations, empty if none found
+     */
+    public List<CampusLocation> search(String query, int maxResults) {
+        List<CampusLocation> matches = new ArrayList<CampusLocation>();
+        List<String> queryWords = splitWords(query);
+        if (queryWords.isEmpty()) {
+            return matches;
+        }
+
+        // Total edits per location, -1 once a query word can't be matched
+        int[] locationEdits = new int[mLocations.length];
+        int[] wordEdits = new int[mLocations.length];
+
+        for (int q = 0; q < queryWords.size(); q++) {
+            String queryWord = queryWords.get(q);
+            boolean prefix = q == queryWords.size() - 1;
+            int maxEdits = getMaxEdits(queryWord.length());
+
+            Arrays.fill(wordEdits, Integer.MAX_VALUE);
+            IntList candidates = getCandidateWords(queryWord, maxEdits, prefix);
+            for (int c = 0; c < candidates.size; c++) {
+                int word = candidates.get(c);
+                int edits = getBoundedDistance(queryWord, mWords[word], maxEdits, prefix);
+                if (edits <= maxEdits) {
+                    for (int location : mWordLocations[word]) {
+                        wordEdits[location] = Math.min(wordEdits[location], edits);
+                    }
+                }
+            }
+
+            for (int i = 0; i < locationEdits.length; i++) {
+                if (locationEdits[i] >= 0) {
+                    locationEdits[i] = wordEdits[i] == Integer.MAX_VALUE ? -1 : locationEdits[i] + wordEdits[i];
+                }
+            }
+        }
+
+        SuggestionRanker ranker = new SuggestionRanker(query, maxResults);
+        for (int i = 0; i < locationEdits.length; i++) {
+            if (locationEdits[i] >= 0) {
+                String name = mLocations[i].getName();
+                ranker.offer(i, locationEdits[i], name == null ? 0 : name.length());
+            }
+        }
+
+        for (int position : ranker.getRankedPositions()) {
+            matches.add(mLocations[position]);
+        }
+        return matches;
+    }
+
+    /**
+     * Edits tolerated for a query word, too many on a short word would match nearly anything.
+     */
+    private static int getMaxEdits(int length) {
+        if (length <= 2) {
+            return 0;
+        }
+        return length <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Pull the words sharing enough trigrams with the query word to be within maxEdits of it.
+     * Each edit destroys at most three trigrams, so a word within maxEdits edits shares at least
+     * grams - 3 * maxEdits of them. Short words can lose every gram to a couple of edits, but
+     * we still ask for one shared gram rather than verifying the whole vocabulary.
+     */
+    private IntList getCandidateWords(String queryWord, int maxEdits, boolean prefix) {
+        IntList candidates = new IntList();
+        List<String> grams = getGrams(queryWord);
+        if (prefix && grams.size() == 1) {
+            // A single letter has no gram but its closing one, take every word it starts instead
+            for (int word = 0; word < mWords.length; word++) {
+                if (mWords[word].startsWith(queryWord)) {
+                    candidates.add(word);
+                }
+            }
+            return candidates;
+        }
+        if (prefix) {
+            // The word may go on after the query word, its closing gram tells us nothing
+            grams.remove(grams.size() - 1);
+        }
+        int minSharedGrams = Math.max(1, grams.size() - GRAM_LENGTH * maxEdits);
+
+        int[] sharedGrams = new int[mWords.length];
+        for (String gram : grams) {
+            int[] words = mGramWords.get(gram);
+            if (words == null) {
+                continue;
+            }
+            for (int word : words) {
+                // Add each word once, the moment it has shared enough grams
+                if (++sharedGrams[word] == minSharedGrams) {
+                    candidates.add(word);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Levenshtein distance between the query word and the word, or its best matching prefix if
+     * prefix is set. Only the diagonal band of width 2 * maxEdits + 1 is computed and we give up as
+     * soon as a whole row exceeds maxEdits.
+     *
+     * @return The distance, or maxEdits + 1 if it is larger than maxEdits
+     */
+    static int getBoundedDistance(String query, String word, int maxEdits, boolean prefix) {
+        int n = query.length();
+        int m = word.length();
+        int over = maxEdits + 1;
+        if (!prefix && Math.abs(n - m) > maxEdits) {
+            return over;
+        }
+
+        // previous[j] is the distance between the first i - 1 query chars and the first j word chars
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j <= maxEdits ? j : over;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - maxEdits);
+            int to = Math.min(m, i + maxEdits);
+            current[0] = i <= maxEdits ? i : over;
+            if (from > 1) {
+                current[from - 1] = over;
+            }
+
+            int rowMin = current[0];
+            char c = query.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int cost = previous[j - 1] + (c == word.charAt(j - 1) ? 0 : 1);
+                cost = Math.min(cost, previous[j] + 1);
+                cost = Math.min(cost, current[j - 1] + 1);
+                current[j] = Math.min(cost, over);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (to < m) {
+                current[to + 1] = over;
+            }
+            if (rowMin > maxEdits) {
+                return over;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        if (!prefix) {
+            return previous[m];
+        }
+        // Any prefix of the word will do, the user may not have finished typing it
+        int best = over;
+        for (int j = Math.max(0, n - maxEdits); j <= Math.min(m, n + maxEdits); j++) {
+            best = Math.min(best, previous[j]);
+        }
+        return best;
+    }
+
+    /**
+     * Split into lowercased words of letters and digits.
+     */
+    private static List<String> splitWords(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.US));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * The trigrams of a word padded with a boundary marker on each side, so short words get grams too.
+     */
+    private static List<String> getGrams(String word) {
+        String padded = WORD_BOUNDARY + word + WORD_BOUNDARY;
+        List<String> grams = new ArrayList<String>();
+        for (int i = 0; i + GRAM_LENGTH <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    /**
+     * A growable list of primitive ints.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.jamesma.purdue.maps.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable in-memory substring index over location names and abbreviations.
+ *
+ * All lowercased search keys are concatenated into a single char array and every position of
+ * that array is sorted by the suffix starting there. The suffixes that start with a query
+ * form one contiguous run of the sorted array, which we find with two binary searches.
+ *
+ * Coordinates are also kept in primitive arrays, so matches can be ranked by distance without
+ * touching the locations.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class LocationIndex {
+
+    // Terminates each key, sorts before every other char so no match can run across keys
+    private static final char KEY_TERMINATOR = '\u0000';
+
+    private final CampusLocation[] mLocations;
+    private final char[] mText;
+    private final int[] mOwners;
+    private final int[] mSuffixes;
+    private final int[] mLatitudesE6;
+    private final int[] mLongitudesE6;
+
+    public LocationIndex(List<CampusLocation> locations) {
+        mLocations = locations.toArray(new CampusLocation[locations.size()]);
+
+        mLatitudesE6 = new int[mLocations.length];
+        mLongitudesE6 = new int[mLocations.length];
+        for (int i = 0; i < mLocations.length; i++) {
+            mLatitudesE6[i] = mLocations[i].getLatitudeE6();
+            mLongitudesE6[i] = mLocations[i].getLongitudeE6();
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (CampusLocation location : mLocations) {
+            appendKey(text, location.getName());
+            appendKey(text, location.getAbbreviation());
+        }
+        mText = new char[text.length()];
+        text.getChars(0, text.length(), mText, 0);
+
+        // Remember which location each position of the text belongs to
+        mOwners = new int[mText.length];
+        int owner = 0;
+        int keysLeft = 2;
+        for (int i = 0; i < mText.length; i++) {
+            mOwners[i] = owner;
+            if (mText[i] == KEY_TERMINATOR && --keysLeft == 0) {
+                owner++;
+                keysLeft = 2;
+            }
+        }
+
+        mSuffixes = sortSuffixes(mText);
+    }
+
+    private static void appendKey(StringBuilder text, String key) {
+        if (key != null) {
+            text.append(key.toLowerCase(Locale.US));
+        }
+        text.append(KEY_TERMINATOR);
+    }
+
+    private static int[] sortSuffixes(final char[] text) {
+        Integer[] positions = new Integer[text.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int i = lhs;
+                int j = rhs;
+                // Keys end with the terminator, so two different suffixes always differ before either ends
+                while (text[i] == text[j] && text[i] != KEY_TERMINATOR) {
+                    i++;
+                    j++;
+                }
+                return text[i] - text[j];
+            }
+        });
+
+        int[] suffixes = new int[positions.length];
+        for (int i = 0; i < suffixes.length; i++) {
+            suffixes[i] = positions[i];
+        }
+        return suffixes;
+    }
+
+    /**
+     * @return The number of locations in the index
+     */
+    public int size() {
+        return mLocations.length;
+    }
+
+    /**
+     * Returns the best ranked locations whose name or abbreviation contains the query.
+     *
+     * @see SuggestionRanker
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of locations to return
+     * @return The matching locations best first, empty if none found
+     */
+    public List<CampusLocation> search(String query, int maxResults) {
+        BitSet matched = getMatched(query);
+
+        SuggestionRanker ranker = new SuggestionRanker(query, maxResults);
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            ranker.offer(i, mLocations[i].getName(), mLocations[i].getAbbreviation());
+        }
+        
+        return getLocations(ranker.getRankedPositions());
+    }
+
+    /**
+     * Returns the locations whose name or abbreviation contains the query that are nearest to a point.
+     *
+     * @see ProximityRanker
+     * @param query
+     *            The lowercased string to search for
+     * @param maxResults
+     *            The maximum number of locations to return
+     * @param latE6
+     *            Latitude of the point
+     * @param lngE6
+     *            Longitude of the point
+     * @return The matching locations nearest first, empty if none found
+     */
+    public List<CampusLocation> searchNearest(String query, int maxResults, int latE6, int lngE6) {
+        BitSet matched = getMatched(query);
+
+        int[] positions = new int[matched.cardinality()];
+        int count = 0;
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            positions[count++] = i;
+        }
+
+        ProximityRanker ranker = new ProximityRanker(latE6, lngE6, Math.min(maxResults, count));
+        ranker.offer(positions, count, mLatitudesE6, mLongitudesE6);
+        return getLocations(ranker.getRankedPositions());
+    }
+
+    /**
+     * @return The positions of the locations whose name or abbreviation contains the query
+     */
+    private BitSet getMatched(String query) {
+        BitSet matched = new BitSet(mLocations.length);
+        if (query.length() == 0 || query.indexOf(KEY_TERMINATOR) >= 0) {
+            return matched;
+        }
+
+        int first = lowerBound(query);
+        int last = upperBound(query, first);
+
+        // A location may contain the query several times, keep it once
+        for (int i = first; i < last; i++) {
+            matched.set(mOwners[mSuffixes[i]]);
+        }
+        return matched;
+    }
+
+    private List<CampusLocation> getLocations(int[] positions) {
+        List<CampusLocation> locations = new ArrayList<CampusLocation>(positions.length);
+        for (int position : positions) {
+            locations.add(mLocations[position]);
+        }
+        return locations;
+    }
+
+    /**
+     * @return The first index of {@link #mSuffixes} whose suffix is not less than the query
+     */
+    private int lowerBound(String query) {
+        int low = 0;
+        int high = mSuffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(mSuffixes[mid], query) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The first index of {@link #mSuffixes} from the given one on whose suffix is greater
+     *         than the query, the end of the run of suffixes starting with it
+     */
+    private int upperBound(String query, int from) {
+        int low = from;
+        int high = mSuffixes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSuffix(mSuffixes[mid], query) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare the suffix at position to the query, treating any suffix the query is a prefix of as equal.
+     */
+    private int compareSuffix(int position, String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = mText[position + i];
+            if (c != query.charAt(i)) {
+                return c - query.charAt(i);
+            }
+        }
+        return 0;
+    }
+
+}
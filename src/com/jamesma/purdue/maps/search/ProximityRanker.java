@@ -0,0 +1,181 @@
+package com.jamesma.purdue.maps.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the K matches nearest to a point, nearest first. Ties go to whichever match was offered first.
+ *
+ * Matches are offered in batches of positions into primitive coordinate arrays, and the distances
+ * of a batch are worked out in one pass over them. Distances are only compared, never shown, so
+ * they are left squared on an equirectangular projection around the point: no square roots or
+ * trigonometry per match, and the order is the great-circle order at campus scale.
+ *
+ * Like {@link SuggestionRanker}, only K matches are ever held in a bounded max-heap that grows with
+ * the matches up to K.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class ProximityRanker {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int latE6;
+    private final int lngE6;
+    // Shrinks longitude differences to the length of a degree of latitude at the point
+    private final double lngScale;
+    private final int maxResults;
+    private long[] heap;
+    private int size = 0;
+
+    /**
+     * @param latE6
+     *            Latitude of the point to rank by
+     * @param lngE6
+     *            Longitude of the point to rank by
+     * @param maxResults
+     *            The number of matches to keep, K
+     */
+    public ProximityRanker(int latE6, int lngE6, int maxResults) {
+        if (maxResults < 0) {
+            throw new IllegalArgumentException("maxResults must not be negative: " + maxResults);
+        }
+        this.latE6 = latE6;
+        this.lngE6 = lngE6;
+        this.lngScale = Math.cos(Math.toRadians(latE6 / 1e6));
+        this.maxResults = maxResults;
+        this.heap = new long[Math.min(maxResults, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Offer a batch of matches to the ranker.
+     *
+     * @param positions
+     *            Identifies each match, handed back by {@link #getRankedPositions()}, and indexes the coordinates
+     * @param count
+     *            The number of positions to offer
+     * @param latitudesE6
+     *            Latitude of every location, by position
+     * @param longitudesE6
+     *            Longitude of every location, by position
+     */
+    public void offer(int[] positions, int count, int[] latitudesE6, int[] longitudesE6) {
+        for (int i = 0; i < count; i++) {
+            int position = positions[i];
+            offer(position, latitudesE6[position], longitudesE6[position]);
+        }
+    }
+
+    /**
+     * Offer a single match to the ranker, as it is read.
+     *
+     * @param position
+     *            Identifies the match, handed back by {@link #getRankedPositions()}
+     * @param latitudeE6
+     * @param longitudeE6
+     */
+    public void offer(int position, int latitudeE6, int longitudeE6) {
+        double dLat = latitudeE6 - latE6;
+        double dLng = (longitudeE6 - lngE6) * lngScale;
+        float distance = (float) (dLat * dLat + dLng * dLng);
+
+        // Non-negative floats order like their bits, smaller keys rank higher
+        long key = ((long) Float.floatToIntBits(distance) << 32) | (position & 0xFFFFFFFFL);
+        if (size < maxResults) {
+            if (size == heap.length) {
+                long[] grown = new long[(int) Math.min(maxResults, 2L * size)];
+                System.arraycopy(heap, 0, grown, 0, size);
+                heap = grown;
+            }
+            heap[size] = key;
+            siftUp(size++);
+        } else if (size > 0 && key < heap[0]) {
+            heap[0] = key;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return The positions of the kept matches, nearest first
+     */
+    public int[] getRankedPositions() {
+        long[] keys = new long[size];
+        System.arraycopy(heap, 0, keys, 0, size);
+        Arrays.sort(keys);
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) keys[i];
+        }
+        return positions;
+    }
+
+    /**
+     * Rank a list of matches by distance.
+     *
+     * @param matches
+     * @param latE6
+     *            Latitude of the point to rank by
+     * @param lngE6
+     *            Longitude of the point to rank by
+     * @param maxResults
+     *            The maximum number of matches to return
+     * @return The nearest matches, nearest first
+     */
+    public static List<CampusLocation> getNearestMatches(List<CampusLocation> matches, int latE6, int lngE6,
+            int maxResults) {
+        int count = matches.size();
+        int[] positions = new int[count];
+        int[] latitudesE6 = new int[count];
+        int[] longitudesE6 = new int[count];
+        for (int i = 0; i < count; i++) {
+            CampusLocation match = matches.get(i);
+            positions[i] = i;
+            latitudesE6[i] = match.getLatitudeE6();
+            longitudesE6[i] = match.getLongitudeE6();
+        }
+
+        ProximityRanker ranker = new ProximityRanker(latE6, lngE6, Math.min(maxResults, count));
+        ranker.offer(positions, count, latitudesE6, longitudesE6);
+
+        int[] ranked = ranker.getRankedPositions();
+        List<CampusLocation> nearest = new ArrayList<CampusLocation>(ranked.length);
+        for (int position : ranked) {
+            nearest.add(matches.get(position));
+        }
+        return nearest;
+    }
+
+    private void siftUp(int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] >= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private void siftDown(int i) {
+        long key = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (key >= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.jamesma.purdue.maps.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the match sets of recent queries, keyed by lowercased query. Match sets
+ * are kept as {@link CandidateSet}s, ids and search keys rather than whole locations.
+ *
+ * Every location matching a query also matches the shorter queries it extends, so while the
+ * user keeps typing, a new query is answered by filtering the matches of the longest cached
+ * query it starts with instead of searching the whole table again.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class QueryCache {
+
+    private final LinkedHashMap<String, CandidateSet> mEntries;
+
+    private int hitCount = 0;
+    private int narrowCount = 0;
+    private int missCount = 0;
+
+    /**
+     * @param maxEntries
+     *            The number of queries to remember, least recently used ones are evicted first
+     */
+    public QueryCache(final int maxEntries) {
+        mEntries = new LinkedHashMap<String, CandidateSet>(maxEntries + 1, 1.0f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CandidateSet> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the matches of a query, narrowed down from a cached shorter query if needed.
+     *
+     * @param query
+     *            The lowercased string to search for
+     * @return Every location matching the query, or null if it has to be searched for
+     */
+    public synchronized CandidateSet get(String query) {
+        CandidateSet matches = mEntries.get(query);
+        if (matches != null) {
+            hitCount++;
+            return matches;
+        }
+
+        for (int length = query.length() - 1; length > 0; length--) {
+            CandidateSet candidates = mEntries.get(query.substring(0, length));
+            if (candidates != null) {
+                matches = candidates.narrow(query);
+                narrowCount++;
+                mEntries.put(query, matches);
+                return matches;
+            }
+        }
+
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Remember the matches of a query that was searched for.
+     *
+     * @param query
+     *            The lowercased string that was searched for
+     * @param matches
+     *            Every location matching the query, not to be modified afterwards
+     */
+    public synchronized void put(String query, CandidateSet matches) {
+        mEntries.put(query, matches);
+    }
+
+    /**
+     * Forget every cached query, once the locations they matched have changed. The counts are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return The number of queries answered straight from the cache
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of queries answered by narrowing down a cached shorter query
+     */
+    public synchronized int getNarrowCount() {
+        return narrowCount;
+    }
+
+    /**
+     * @return The number of queries that had to be searched for
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache[entries=" + mEntries.size() + ", hits=" + hitCount
+                + ", narrowed=" + narrowCount + ", misses=" + missCount + "]";
+    }
+
+}
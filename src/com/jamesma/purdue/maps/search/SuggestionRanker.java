@@ -0,0 +1,218 @@
+package com.jamesma.purdue.maps.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the best K of a stream of matches. Matches rank by how the query matched, best first:
+ * exact abbreviation, name prefix, word prefix, then anywhere in the name or abbreviation.
+ * Shorter names win ties, then whichever match was offered first.
+ *
+ * Only K matches are ever held. They are kept in a bounded max-heap with the worst match at
+ * the root, so each offer costs at most O(log K) and the full match set is never sorted. The heap
+ * grows with the matches up to K, so an unbounded K costs no more than the matches offered.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class SuggestionRanker {
+
+    // Match tiers, best first
+    public static final int TIER_EXACT_ABBREVIATION = 0;
+    public static final int TIER_NAME_PREFIX = 1;
+    public static final int TIER_WORD_PREFIX = 2;
+    public static final int TIER_SUBSTRING = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String query;
+    private final int maxResults;
+    private long[] heap;
+    private int size = 0;
+
+    /**
+     * @param query
+     *            The lowercased string that was searched for
+     * @param maxResults
+     *            The number of matches to keep, K
+     */
+    public SuggestionRanker(String query, int maxResults) {
+        if (maxResults < 0) {
+            throw new IllegalArgumentException("maxResults must not be negative: " + maxResults);
+        }
+        this.query = query;
+        this.maxResults = maxResults;
+        this.heap = new long[Math.min(maxResults, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Offer a match to the ranker.
+     *
+     * @param position
+     *            Identifies the match, handed back by {@link #getRankedPositions()}
+     * @param name
+     *            The location name, in any case
+     * @param abbr
+     *            The location abbreviation in any case, or null
+     */
+    public void offer(int position, String name, String abbr) {
+        offer(position, getTier(query, name, abbr), name == null ? 0 : name.length());
+    }
+
+    /**
+     * Offer a match that was already tiered to the ranker.
+     */
+    public void offer(int position, int tier, int nameLength) {
+        // Smaller keys rank higher: tier, then name length, then position
+        long key = ((long) tier << 48) | ((long) Math.min(nameLength, 0xFFFF) << 32) | (position & 0xFFFFFFFFL);
+
+        if (size < maxResults) {
+            if (size == heap.length) {
+                long[] grown = new long[(int) Math.min(maxResults, 2L * size)];
+                System.arraycopy(heap, 0, grown, 0, size);
+                heap = grown;
+            }
+            heap[size] = key;
+            siftUp(size++);
+        } else if (size > 0 && key < heap[0]) {
+            heap[0] = key;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return The positions of the kept matches, best first
+     */
+    public int[] getRankedPositions() {
+        long[] keys = new long[size];
+        System.arraycopy(heap, 0, keys, 0, size);
+        Arrays.sort(keys);
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) keys[i];
+        }
+        return positions;
+    }
+
+    /**
+     * Rank a list of matches.
+     *
+     * @param query
+     *            The lowercased string that was searched for
+     * @param matches
+     * @param maxResults
+     *            The maximum number of matches to return
+     * @return The best matches, best first
+     */
+    public static List<CampusLocation> getTopMatches(String query, List<CampusLocation> matches, int maxResults) {
+        SuggestionRanker ranker = new SuggestionRanker(query, maxResults);
+        for (int i = 0; i < matches.size(); i++) {
+            CampusLocation match = matches.get(i);
+            ranker.offer(i, match.getName(), match.getAbbreviation());
+        }
+
+        int[] positions = ranker.getRankedPositions();
+        List<CampusLocation> topMatches = new ArrayList<CampusLocation>(positions.length);
+        for (int position : positions) {
+            topMatches.add(matches.get(position));
+        }
+        return topMatches;
+    }
+
+    private void siftUp(int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] >= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private void siftDown(int i) {
+        long key = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (key >= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    /**
+     * Determine how the query matched a location, comparing case-insensitively without copying either string.
+     *
+     * @param query
+     *            The lowercased string that was searched for
+     * @param name
+     * @param abbr
+     * @return One of the TIER_ constants
+     */
+    public static int getTier(String query, String name, String abbr) {
+        int length = query.length();
+
+        if (abbr != null && abbr.length() == length && abbr.regionMatches(true, 0, query, 0, length)) {
+            return TIER_EXACT_ABBREVIATION;
+        }
+        if (name != null && name.regionMatches(true, 0, query, 0, length)) {
+            return TIER_NAME_PREFIX;
+        }
+        if (abbr != null && abbr.regionMatches(true, 0, query, 0, length)) {
+            return TIER_WORD_PREFIX;
+        }
+        if (name != null) {
+            for (int i = 1; i + length <= name.length(); i++) {
+                if (!Character.isLetterOrDigit(name.charAt(i - 1)) && name.regionMatches(true, i, query, 0, length)) {
+                    return TIER_WORD_PREFIX;
+                }
+            }
+        }
+        return TIER_SUBSTRING;
+    }
+
+    /**
+     * Determine how the query matched a location by its search key, the lowercased name followed by
+     * the lowercased abbreviation after a separator. Same as {@link #getTier(String, String, String)}
+     * without splitting the key.
+     *
+     * @param query
+     *            The lowercased string that was searched for
+     * @param searchKey
+     * @param nameLength
+     *            The length of the name at the start of the key, the key length if it has no abbreviation
+     * @return One of the TIER_ constants
+     */
+    public static int getTier(String query, String searchKey, int nameLength) {
+        int length = query.length();
+        int abbrStart = nameLength + 1;
+
+        if (searchKey.length() - abbrStart == length && searchKey.startsWith(query, abbrStart)) {
+            return TIER_EXACT_ABBREVIATION;
+        }
+        if (length <= nameLength && searchKey.startsWith(query)) {
+            return TIER_NAME_PREFIX;
+        }
+        if (abbrStart < searchKey.length() && searchKey.startsWith(query, abbrStart)) {
+            return TIER_WORD_PREFIX;
+        }
+        for (int i = 1; i + length <= nameLength; i++) {
+            if (!Character.isLetterOrDigit(searchKey.charAt(i - 1)) && searchKey.startsWith(query, i)) {
+                return TIER_WORD_PREFIX;
+            }
+        }
+        return TIER_SUBSTRING;
+    }
+
+}
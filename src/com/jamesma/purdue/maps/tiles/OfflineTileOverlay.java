@@ -0,0 +1,250 @@
+package com.jamesma.purdue.maps.tiles;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
+import com.jamesma.purdue.maps.geo.GeoMath;
+
+/**
+ * Draws map tiles from a {@link TilePack} over the map, so the campus shows without a network connection.
+ *
+ * Decoded tiles are kept in an LRU cache sized to the memory class of the device. Tiles that
+ * aren't cached are decoded on a background thread and the map is redrawn once they are ready.
+ * Until then the tile is drawn from a cached less zoomed in tile if there is one. Beyond the
+ * deepest zoom level of the pack its tiles are drawn scaled up.
+ *
+ * How long tiles take from first being needed to being drawable is tracked, see {@link #toString()}.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class OfflineTileOverlay extends Overlay {
+    private static final String TAG = "OfflineTileOverlay";
+
+    // Share of the app's memory class spent on decoded tiles
+    private static final int CACHE_MEMORY_DIVISOR = 8;
+    // Less zoomed in tiles tried when a tile isn't decoded yet
+    private static final int MAX_FALLBACK_LEVELS = 3;
+    // Tiles the pack doesn't have are remembered up to this many, then forgotten all at once
+    private static final int MAX_ABSENT_TILES = 1024;
+    // Log the latency stats every this many loaded tiles
+    private static final int STATS_LOG_INTERVAL = 64;
+
+    private final TilePack mPack;
+    private final MapView mMapView;
+    private final LruCache<Long, Bitmap> mCache;
+    private final ExecutorService mLoader = Executors.newSingleThreadExecutor();
+    private volatile boolean mClosed = false;
+
+    // Guarded by this: tiles being loaded with the time they were first needed, and tiles the pack doesn't have
+    private final Map<Long, Long> mPending = new HashMap<Long, Long>();
+    private final Set<Long> mAbsent = new HashSet<Long>();
+
+    // Guarded by this: latency stats
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int loadCount = 0;
+    private long totalLoadNanos = 0;
+    private long maxLoadNanos = 0;
+
+    // Reused while drawing
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Point mPoint = new Point();
+    private final Rect mSource = new Rect();
+    private final Rect mDestination = new Rect();
+
+    public OfflineTileOverlay(TilePack pack, MapView mapView) {
+        mPack = pack;
+        mMapView = mapView;
+
+        ActivityManager am = (ActivityManager) mapView.getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = am.getMemoryClass() * 1024 * 1024 / CACHE_MEMORY_DIVISOR;
+        mCache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        int maxZoom = mPack.getMaxZoom();
+        int zoom = Math.min(mapView.getZoomLevel(), maxZoom);
+        if (shadow || mClosed || zoom < mPack.getMinZoom()) {
+            return;
+        }
+
+        // Tiles covering the visible map, clamped to the world
+        Projection projection = mapView.getProjection();
+        GeoPoint northWest = projection.fromPixels(0, 0);
+        GeoPoint southEast = projection.fromPixels(mapView.getWidth(), mapView.getHeight());
+        int tiles = 1 << zoom;
+        int minX = toTile(GeoMath.mercatorX(northWest.getLongitudeE6()), tiles);
+        int maxX = toTile(GeoMath.mercatorX(southEast.getLongitudeE6()), tiles);
+        int minY = toTile(GeoMath.mercatorY(northWest.getLatitudeE6()), tiles);
+        int maxY = toTile(GeoMath.mercatorY(southEast.getLatitudeE6()), tiles);
+
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                drawTile(canvas, projection, zoom, x, y);
+            }
+        }
+    }
+
+    private static int toTile(double mercator, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) (mercator * tiles)));
+    }
+
+    private void drawTile(Canvas canvas, Projection projection, int zoom, int x, int y) {
+        Bitmap bitmap = getBitmap(zoom, x, y);
+        int levels = 0;
+        // Fall back to the part of a cached less zoomed in tile covering this one
+        while (bitmap == null && levels < MAX_FALLBACK_LEVELS && zoom - levels > 0) {
+            levels++;
+            bitmap = mCache.get(TilePack.getKey(zoom - levels, x >> levels, y >> levels));
+        }
+        if (bitmap == null) {
+            return;
+        }
+
+        int mask = (1 << levels) - 1;
+        int width = bitmap.getWidth() >> levels;
+        int height = bitmap.getHeight() >> levels;
+        mSource.set((x & mask) * width, (y & mask) * height, ((x & mask) + 1) * width, ((y & mask) + 1) * height);
+
+        double tiles = 1 << zoom;
+        projection.toPixels(new GeoPoint(
+                GeoMath.mercatorToLatitudeE6(y / tiles), GeoMath.mercatorToLongitudeE6(x / tiles)), mPoint);
+        mDestination.left = mPoint.x;
+        mDestination.top = mPoint.y;
+        projection.toPixels(new GeoPoint(
+                GeoMath.mercatorToLatitudeE6((y + 1) / tiles), GeoMath.mercatorToLongitudeE6((x + 1) / tiles)), mPoint);
+        mDestination.right = mPoint.x;
+        mDestination.bottom = mPoint.y;
+
+        canvas.drawBitmap(bitmap, mSource, mDestination, mPaint);
+    }
+
+    /**
+     * Returns a decoded tile from the cache, requesting it be loaded if it isn't there.
+     *
+     * @return The tile, or null if it isn't decoded yet or the pack doesn't have it
+     */
+    private Bitmap getBitmap(int zoom, int x, int y) {
+        Long key = TilePack.getKey(zoom, x, y);
+        Bitmap bitmap = mCache.get(key);
+
+        synchronized (this) {
+            if (bitmap != null) {
+                hitCount++;
+                return bitmap;
+            }
+            missCount++;
+            if (mPending.containsKey(key) || mAbsent.contains(key)) {
+                return null;
+            }
+            mPending.put(key, System.nanoTime());
+        }
+
+        mLoader.execute(new LoadTile(zoom, x, y, key));
+        return null;
+    }
+
+    /**
+     * Reads and decodes a tile off the main thread, then redraws the map.
+     */
+    private class LoadTile implements Runnable {
+        private final int zoom;
+        private final int x;
+        private final int y;
+        private final Long key;
+
+        LoadTile(int zoom, int x, int y, Long key) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            byte[] data = mPack.getTile(zoom, x, y);
+            Bitmap bitmap = data == null ? null : BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (bitmap != null) {
+                mCache.put(key, bitmap);
+            }
+
+            boolean logStats;
+            synchronized (OfflineTileOverlay.this) {
+                long nanos = System.nanoTime() - mPending.remove(key);
+                if (bitmap == null) {
+                    if (mAbsent.size() >= MAX_ABSENT_TILES) {
+                        mAbsent.clear();
+                    }
+                    mAbsent.add(key);
+                    return;
+                }
+
+                loadCount++;
+                totalLoadNanos += nanos;
+                maxLoadNanos = Math.max(maxLoadNanos, nanos);
+                logStats = loadCount % STATS_LOG_INTERVAL == 0;
+            }
+
+            if (logStats && Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, OfflineTileOverlay.this.toString());
+            }
+            mMapView.postInvalidate();
+        }
+    }
+
+    /**
+     * Stop loading tiles and release the decoded ones and the pack. The overlay draws nothing afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mLoader.shutdownNow();
+        mCache.evictAll();
+        try {
+            mPack.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close the tile pack", e);
+        }
+    }
+
+    /**
+     * @return The mean time from a tile first being needed to it being decoded, in milliseconds
+     */
+    public synchronized double getMeanLoadMillis() {
+        return loadCount == 0 ? 0 : totalLoadNanos / 1e6 / loadCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OfflineTileOverlay[hits=" + hitCount + ", misses=" + missCount + ", loaded=" + loadCount
+                + ", meanLoadMs=" + getMeanLoadMillis() + ", maxLoadMs=" + maxLoadNanos / 1e6
+                + ", cachedBytes=" + mCache.size() + "/" + mCache.maxSize() + "]";
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.jamesma.purdue.maps.tiles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only store of map tile images packed into a single memory-mapped file.
+ *
+ * The file starts with a header, then an index of fixed size entries sorted by tile key, then
+ * the encoded tile images back to back. Looking up a tile is a binary search over the mapped
+ * index, and reading it is a copy out of the mapped data, so there is no per-tile file to open
+ * and the kernel pages in only the parts of the pack that are used.
+ *
+ * <pre>
+ * header: int MAGIC, int VERSION, int tile count
+ * index:  per tile, sorted by key: long key, long data offset from the start of the file, int data length
+ * data:   encoded tile images, identical images may share their data
+ * </pre>
+ *
+ * All values are big-endian.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class TilePack implements Closeable {
+
+    // "PMTP"
+    public static final int MAGIC = 0x504D5450;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    public static final int INDEX_ENTRY_SIZE = 20;
+
+    // Tile coordinates go up to 2^24, plenty for any zoom level the map has
+    private static final int COORDINATE_BITS = 24;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mTileCount;
+
+    private TilePack(RandomAccessFile file, MappedByteBuffer buffer, int tileCount) {
+        mFile = file;
+        mBuffer = buffer;
+        mTileCount = tileCount;
+    }
+
+    /**
+     * Memory-maps a tile pack.
+     *
+     * @param file
+     * @return The opened pack, to be closed when no longer needed
+     * @throws IOException
+     *             If the file can't be read or isn't a tile pack
+     */
+    public static TilePack open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a tile pack: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tile pack version " + buffer.getInt(4) + ": " + file);
+            }
+            int tileCount = buffer.getInt(8);
+            if (tileCount < 0 || HEADER_SIZE + (long) tileCount * INDEX_ENTRY_SIZE > buffer.capacity()) {
+                throw new IOException("Truncated tile pack index: " + file);
+            }
+            return new TilePack(raf, buffer, tileCount);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The key tiles are sorted by in the index, ordered by zoom level, then x, then y
+     */
+    public static long getKey(int zoom, int x, int y) {
+        return ((long) zoom << (2 * COORDINATE_BITS)) | ((long) x << COORDINATE_BITS) | y;
+    }
+
+    /**
+     * @return The number of tiles in the pack
+     */
+    public int size() {
+        return mTileCount;
+    }
+
+    /**
+     * @return The zoom level of the least zoomed in tile, or -1 if the pack is empty
+     */
+    public int getMinZoom() {
+        return mTileCount == 0 ? -1 : getZoom(getIndexKey(0));
+    }
+
+    /**
+     * @return The zoom level of the most zoomed in tile, or -1 if the pack is empty
+     */
+    public int getMaxZoom() {
+        return mTileCount == 0 ? -1 : getZoom(getIndexKey(mTileCount - 1));
+    }
+
+    private static int getZoom(long key) {
+        return (int) (key >>> (2 * COORDINATE_BITS));
+    }
+
+    private long getIndexKey(int i) {
+        return mBuffer.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * Reads the encoded image of a tile. Safe to call from several threads at once.
+     *
+     * @return The tile image as stored, or null if the pack doesn't have the tile
+     */
+    public byte[] getTile(int zoom, int x, int y) {
+        long key = getKey(zoom, x, y);
+
+        int low = 0;
+        int high = mTileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = getIndexKey(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                int entry = HEADER_SIZE + mid * INDEX_ENTRY_SIZE;
+                long offset = mBuffer.getLong(entry + 8);
+                int length = mBuffer.getInt(entry + 16);
+
+                // The buffer position isn't ours to move, read through a view of it
+                ByteBuffer data = mBuffer.duplicate();
+                data.position((int) offset);
+                byte[] tile = new byte[length];
+                data.get(tile);
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+}
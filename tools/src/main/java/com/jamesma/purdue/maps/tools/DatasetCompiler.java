@@ -0,0 +1,635 @@
+package com.jamesma.purdue.maps.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.jamesma.purdue.maps.database.WordMatchQueries;
+import com.jamesma.purdue.maps.geo.GeoMath;
+import com.jamesma.purdue.maps.search.CampusLocation;
+
+/**
+ * Compiles the location dataset from the CSV files under data/ into the database shipped as
+ * assets/purdue_locations.db, laid out the way the app queries it so nothing is fixed up on the
+ * device.
+ *
+ * <ul>
+ * <li>locations.csv: id, name, abbr, lat, lng, addr. Coordinates in degrees, empty fields are null.</li>
+ * <li>walkway_nodes.csv: id, lat, lng.</li>
+ * <li>walkway_edges.csv: from, to, length_m. An empty length is the straight line between the nodes.</li>
+ * <li>footprints.csv: loc_id, vertex, lat, lng. Vertices numbered from 0 in order around each outline.</li>
+ * </ul>
+ *
+ * Text is trimmed and runs of whitespace collapsed. Every location gets its search key, the
+ * n-grams of the key in the inverted index and the subtitle shown under it in suggestions. The
+ * data is validated first and nothing is written if there are errors: duplicate ids or locations,
+ * coordinates outside campus, dangling references, malformed footprints. Locations sharing an
+ * abbreviation are only warned about, since distinct places can share a campus code. The
+ * database is then analyzed, stamped with the version, and vacuumed into the chosen page size.
+ *
+ * The version is the schema the app expects. The data version, kept in the metadata table, is
+ * the revision of the data that delta updates are made against, see DeltaServer.
+ *
+ * <pre>
+ * java com.jamesma.purdue.maps.tools.DatasetCompiler --out assets/purdue_locations.db --version 7
+ *     [--data-version 0] [--data data] [--page-size 4096] [--bbox 40.405,-86.950,40.475,-86.900]
+ * </pre>
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class DatasetCompiler {
+
+    private static final String DEFAULT_DATA_DIR = "data";
+    private static final String DEFAULT_DATA_VERSION = "0";
+    // Matches the page size of Android's own databases, a lookup reads no more than it must
+    private static final String DEFAULT_PAGE_SIZE = "4096";
+    // Campus and the surrounding West Lafayette blocks, see TilePackBuilder
+    private static final String DEFAULT_BBOX = "40.405,-86.950,40.475,-86.900";
+
+    private static final String LOCATIONS_TABLE = WordMatchQueries.TABLE_NAME;
+    private static final String GRAMS_TABLE = WordMatchQueries.GRAM_TABLE_NAME;
+
+    private final int minLatE6;
+    private final int minLngE6;
+    private final int maxLatE6;
+    private final int maxLngE6;
+
+    private final List<String> errors = new ArrayList<String>();
+    private final List<String> warnings = new ArrayList<String>();
+
+    private final List<Location> locations = new ArrayList<Location>();
+    private final List<int[]> nodes = new ArrayList<int[]>();
+    private final List<double[]> edges = new ArrayList<double[]>();
+    private final List<int[]> footprintVertices = new ArrayList<int[]>();
+
+    private static class Location {
+        final int id;
+        final String name;
+        final String abbr;
+        final int latE6;
+        final int lngE6;
+        final String addr;
+
+        Location(int id, String name, String abbr, int latE6, int lngE6, String addr) {
+            this.id = id;
+            this.name = name;
+            this.abbr = abbr;
+            this.latE6 = latE6;
+            this.lngE6 = lngE6;
+            this.addr = addr;
+        }
+    }
+
+    private DatasetCompiler(int minLatE6, int minLngE6, int maxLatE6, int maxLngE6) {
+        this.minLatE6 = minLatE6;
+        this.minLngE6 = minLngE6;
+        this.maxLatE6 = maxLatE6;
+        this.maxLngE6 = maxLngE6;
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Map<String, String> options = parseOptions(args);
+        String out = options.get("--out");
+        String version = options.get("--version");
+        if (out == null || version == null) {
+            System.err.println("Usage: DatasetCompiler --out FILE --version N [--data-version N] [--data DIR] [--page-size BYTES] [--bbox MINLAT,MINLNG,MAXLAT,MAXLNG]");
+            System.exit(2);
+        }
+
+        String[] bbox = value(options, "--bbox", DEFAULT_BBOX).split(",");
+        if (bbox.length != 4) {
+            System.err.println("Malformed --bbox");
+            System.exit(2);
+        }
+
+        DatasetCompiler compiler = new DatasetCompiler(
+                toE6(bbox[0].trim()), toE6(bbox[1].trim()), toE6(bbox[2].trim()), toE6(bbox[3].trim()));
+        File dataDir = new File(value(options, "--data", DEFAULT_DATA_DIR));
+        compiler.readLocations(new File(dataDir, "locations.csv"));
+        compiler.readWalkwayNodes(new File(dataDir, "walkway_nodes.csv"));
+        compiler.readWalkwayEdges(new File(dataDir, "walkway_edges.csv"));
+        compiler.readFootprints(new File(dataDir, "footprints.csv"));
+
+        for (String warning : compiler.warnings) {
+            System.err.println("warning: " + warning);
+        }
+        if (!compiler.errors.isEmpty()) {
+            for (String error : compiler.errors) {
+                System.err.println("error: " + error);
+            }
+            System.err.printf("%d errors, nothing written%n", compiler.errors.size());
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        int pageSize = Integer.parseInt(value(options, "--page-size", DEFAULT_PAGE_SIZE));
+        int dataVersion = Integer.parseInt(value(options, "--data-version", DEFAULT_DATA_VERSION));
+        int grams = compiler.write(new File(out), Integer.parseInt(version), dataVersion, pageSize);
+        System.out.printf("Wrote %d locations, %d grams, %d walkway nodes, %d edges and %d footprint vertices "
+                + "to %s (%d bytes, %d byte pages) in %.1f s%n",
+                compiler.locations.size(), grams, compiler.nodes.size(), compiler.edges.size(),
+                compiler.footprintVertices.size(), out, new File(out).length(), pageSize,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String value(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Parse degrees exactly, the dataset has no more precision than microdegrees.
+     *
+     * @throws NumberFormatException
+     *             If it isn't a number or has more than 6 decimal places
+     */
+    private static int toE6(String degrees) {
+        try {
+            return new BigDecimal(degrees).movePointRight(6).intValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("More than 6 decimal places: " + degrees);
+        }
+    }
+
+    /**
+     * Trim and collapse whitespace, including line breaks pasted into a field.
+     *
+     * @return The normalized text, or null if nothing is left
+     */
+    private static String normalize(String text) {
+        String normalized = text.trim().replaceAll("\\s+", " ");
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    private void error(CsvFile csv, int row, String message) {
+        errors.add(csv.getPosition(row) + ": " + message);
+    }
+
+    private void warn(CsvFile csv, int row, String message) {
+        warnings.add(csv.getPosition(row) + ": " + message);
+    }
+
+    private boolean isOnCampus(int latE6, int lngE6) {
+        return latE6 >= minLatE6 && latE6 <= maxLatE6 && lngE6 >= minLngE6 && lngE6 <= maxLngE6;
+    }
+
+    /**
+     * Read a coordinate pair of a row, reporting it if it is malformed or off campus.
+     *
+     * @return The coordinates, or null if they are unusable
+     */
+    private int[] readCoordinates(CsvFile csv, int row, String latColumn, String lngColumn) {
+        int latE6, lngE6;
+        try {
+            latE6 = toE6(csv.get(row, latColumn));
+            lngE6 = toE6(csv.get(row, lngColumn));
+        } catch (NumberFormatException e) {
+            error(csv, row, "Malformed coordinates: " + e.getMessage());
+            return null;
+        }
+        if (!isOnCampus(latE6, lngE6)) {
+            error(csv, row, String.format(Locale.US, "Coordinates %.6f,%.6f outside campus bounds",
+                    latE6 / 1e6, lngE6 / 1e6));
+            return null;
+        }
+        return new int[] { latE6, lngE6 };
+    }
+
+    private Integer readId(CsvFile csv, int row, String column) {
+        try {
+            return Integer.valueOf(csv.get(row, column));
+        } catch (NumberFormatException e) {
+            error(csv, row, "Malformed " + column + ": " + csv.get(row, column));
+            return null;
+        }
+    }
+
+    private void readLocations(File file) throws IOException {
+        CsvFile csv = new CsvFile(file, "id", "name", "abbr", "lat", "lng", "addr");
+        Map<Integer, Integer> rowsById = new HashMap<Integer, Integer>();
+        Map<String, Location> byAbbr = new HashMap<String, Location>();
+        for (int row = 0; row < csv.size(); row++) {
+            Integer id = readId(csv, row, "id");
+            int[] coordinates = readCoordinates(csv, row, "lat", "lng");
+            String rawName = csv.get(row, "name");
+            String name = normalize(rawName);
+            String abbr = normalize(csv.get(row, "abbr"));
+            String addr = normalize(csv.get(row, "addr"));
+            if (name == null) {
+                error(csv, row, "Location has no name");
+            } else if (!name.equals(rawName)) {
+                warn(csv, row, "Normalized whitespace in name");
+            }
+            if (id == null || coordinates == null || name == null) {
+                continue;
+            }
+
+            if (rowsById.containsKey(id)) {
+                error(csv, row, "Duplicate id " + id + ", first at " + csv.getPosition(rowsById.get(id)));
+                continue;
+            }
+            rowsById.put(id, row);
+
+            Location location = new Location(id, name, abbr, coordinates[0], coordinates[1], addr);
+            if (abbr != null) {
+                Location same = byAbbr.get(abbr.toUpperCase(Locale.US));
+                if (same == null) {
+                    byAbbr.put(abbr.toUpperCase(Locale.US), location);
+                } else if (same.name.equalsIgnoreCase(name)) {
+                    error(csv, row, "Duplicate of location " + same.id + " (" + abbr + ")");
+                    continue;
+                } else {
+                    warn(csv, row, "Abbreviation " + abbr + " is shared with location " + same.id);
+                }
+            }
+            locations.add(location);
+        }
+        Collections.sort(locations, new Comparator<Location>() {
+            @Override
+            public int compare(Location a, Location b) {
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        });
+    }
+
+    private void readWalkwayNodes(File file) throws IOException {
+        CsvFile csv = new CsvFile(file, "id", "lat", "lng");
+        Map<Integer, Integer> rowsById = new HashMap<Integer, Integer>();
+        for (int row = 0; row < csv.size(); row++) {
+            Integer id = readId(csv, row, "id");
+            int[] coordinates = readCoordinates(csv, row, "lat", "lng");
+            if (id == null || coordinates == null) {
+                continue;
+            }
+            if (rowsById.containsKey(id)) {
+                error(csv, row, "Duplicate node " + id + ", first at " + csv.getPosition(rowsById.get(id)));
+                continue;
+            }
+            rowsById.put(id, row);
+            nodes.add(new int[] { id, coordinates[0], coordinates[1] });
+        }
+    }
+
+    private void readWalkwayEdges(File file) throws IOException {
+        Map<Integer, int[]> nodesById = new HashMap<Integer, int[]>();
+        for (int[] node : nodes) {
+            nodesById.put(node[0], node);
+        }
+
+        CsvFile csv = new CsvFile(file, "from", "to", "length_m");
+        for (int row = 0; row < csv.size(); row++) {
+            Integer from = readId(csv, row, "from");
+            Integer to = readId(csv, row, "to");
+            if (from == null || to == null) {
+                continue;
+            }
+            int[] a = nodesById.get(from);
+            int[] b = nodesById.get(to);
+            if (a == null || b == null) {
+                error(csv, row, "Edge to unknown node " + (a == null ? from : to));
+                continue;
+            }
+            if (from.equals(to)) {
+                error(csv, row, "Edge from node " + from + " to itself");
+                continue;
+            }
+
+            double length;
+            String lengthText = csv.get(row, "length_m").trim();
+            if (lengthText.isEmpty()) {
+                // Straight line, to the same 0.1 m as surveyed lengths
+                length = Math.round(GeoMath.distanceMeters(a[1], a[2], b[1], b[2]) * 10) / 10.0;
+            } else {
+                try {
+                    length = Double.parseDouble(lengthText);
+                } catch (NumberFormatException e) {
+                    length = Double.NaN;
+                }
+                if (!(length > 0)) {
+                    error(csv, row, "Malformed length: " + lengthText);
+                    continue;
+                }
+            }
+            edges.add(new double[] { from, to, length });
+        }
+    }
+
+    private void readFootprints(File file) throws IOException {
+        Map<Integer, Location> locationsById = new HashMap<Integer, Location>();
+        for (Location location : locations) {
+            locationsById.put(location.id, location);
+        }
+
+        CsvFile csv = new CsvFile(file, "loc_id", "vertex", "lat", "lng");
+        // Vertices of the footprint being read, which must be numbered 0, 1, 2... in one run of rows
+        List<int[]> outline = new ArrayList<int[]>();
+        int outlineRow = -1;
+        List<Integer> finished = new ArrayList<Integer>();
+        for (int row = 0; row <= csv.size(); row++) {
+            Integer locId = row < csv.size() ? readId(csv, row, "loc_id") : null;
+            if (row < csv.size() && locId == null) {
+                continue;
+            }
+            if (!outline.isEmpty() && (locId == null || locId != outline.get(0)[0])) {
+                if (outline.size() < 3) {
+                    error(csv, outlineRow, "Footprint of location " + outline.get(0)[0] + " has fewer than 3 vertices");
+                } else {
+                    footprintVertices.addAll(outline);
+                }
+                finished.add(outline.get(0)[0]);
+                outline.clear();
+            }
+            if (locId == null) {
+                break;
+            }
+
+            if (!locationsById.containsKey(locId)) {
+                error(csv, row, "Footprint of unknown location " + locId);
+                continue;
+            }
+            if (outline.isEmpty() && finished.contains(locId)) {
+                error(csv, row, "Footprint of location " + locId + " is split across the file");
+                continue;
+            }
+            Integer vertex = readId(csv, row, "vertex");
+            int[] coordinates = readCoordinates(csv, row, "lat", "lng");
+            if (vertex == null || coordinates == null) {
+                continue;
+            }
+            if (vertex != outline.size()) {
+                error(csv, row, "Expected vertex " + outline.size() + " of location " + locId + ", found " + vertex);
+                continue;
+            }
+            if (outline.isEmpty()) {
+                outlineRow = row;
+            }
+            outline.add(new int[] { locId, vertex, coordinates[0], coordinates[1] });
+        }
+    }
+
+    /**
+     * Write the database next to its destination and rename it over once complete.
+     *
+     * @return The number of rows in the n-gram index
+     */
+    private int write(File out, int version, int dataVersion, int pageSize) throws IOException, SQLException {
+        File tmp = new File(out.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("Unable to delete " + tmp);
+        }
+
+        int gramCount;
+        Connection db = DriverManager.getConnection("jdbc:sqlite:" + tmp.getPath());
+        try {
+            Statement statement = db.createStatement();
+            // Takes effect on the empty database, VACUUM below keeps it
+            statement.execute("PRAGMA page_size = " + pageSize);
+
+            db.setAutoCommit(false);
+            statement.execute("CREATE TABLE " + LOCATIONS_TABLE + " ("
+                    + "_id INTEGER PRIMARY KEY NOT NULL, name TEXT NOT NULL, abbr TEXT, "
+                    + "lat_e6 INTEGER NOT NULL, lng_e6 INTEGER NOT NULL, addr TEXT, "
+                    + "subtitle TEXT, search_key TEXT NOT NULL)");
+            statement.execute("CREATE TABLE " + GRAMS_TABLE + " ("
+                    + WordMatchQueries.GRAM + " TEXT NOT NULL, " + WordMatchQueries.GRAM_LOC_ID + " INTEGER NOT NULL)");
+            statement.execute("CREATE TABLE walkway_nodes ("
+                    + "_id INTEGER PRIMARY KEY, lat_e6 INTEGER NOT NULL, lng_e6 INTEGER NOT NULL)");
+            statement.execute("CREATE TABLE walkway_edges ("
+                    + "from_node INTEGER NOT NULL, to_node INTEGER NOT NULL, length_m REAL NOT NULL)");
+            statement.execute("CREATE TABLE building_footprints ("
+                    + "loc_id INTEGER NOT NULL, vertex INTEGER NOT NULL, lat_e6 INTEGER NOT NULL, lng_e6 INTEGER NOT NULL, "
+                    + "PRIMARY KEY (loc_id, vertex))");
+            statement.execute("CREATE TABLE metadata (key TEXT PRIMARY KEY NOT NULL, value TEXT)");
+            statement.execute("INSERT INTO metadata VALUES ('data_version', '" + dataVersion + "')");
+
+            List<String[]> grams = new ArrayList<String[]>();
+            PreparedStatement insert = db.prepareStatement("INSERT INTO " + LOCATIONS_TABLE + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            for (Location location : locations) {
+                String searchKey = WordMatchQueries.getSearchKey(location.name, location.abbr);
+                insert.setInt(1, location.id);
+                insert.setString(2, location.name);
+                insert.setString(3, location.abbr);
+                insert.setInt(4, location.latE6);
+                insert.setInt(5, location.lngE6);
+                insert.setString(6, location.addr);
+                insert.setString(7, CampusLocation.getSubtitle(location.abbr, location.addr));
+                insert.setString(8, searchKey);
+                insert.addBatch();
+                for (String gram : WordMatchQueries.getIndexGrams(searchKey)) {
+                    grams.add(new String[] { gram, Integer.toString(location.id) });
+                }
+            }
+            insert.executeBatch();
+            insert.close();
+
+            // In index order, so the rows of a gram sit together in the table too
+            Collections.sort(grams, new Comparator<String[]>() {
+                @Override
+                public int compare(String[] a, String[] b) {
+                    int c = a[0].compareTo(b[0]);
+                    return c != 0 ? c : Integer.parseInt(a[1]) - Integer.parseInt(b[1]);
+                }
+            });
+            insert = db.prepareStatement("INSERT INTO " + GRAMS_TABLE + " VALUES (?, ?)");
+            for (String[] gram : grams) {
+                insert.setString(1, gram[0]);
+                insert.setInt(2, Integer.parseInt(gram[1]));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+            gramCount = grams.size();
+
+            insert = db.prepareStatement("INSERT INTO walkway_nodes VALUES (?, ?, ?)");
+            for (int[] node : nodes) {
+                insert.setInt(1, node[0]);
+                insert.setInt(2, node[1]);
+                insert.setInt(3, node[2]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+
+            insert = db.prepareStatement("INSERT INTO walkway_edges VALUES (?, ?, ?)");
+            for (double[] edge : edges) {
+                insert.setInt(1, (int) edge[0]);
+                insert.setInt(2, (int) edge[1]);
+                insert.setDouble(3, edge[2]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+
+            insert = db.prepareStatement("INSERT INTO building_footprints VALUES (?, ?, ?, ?)");
+            for (int[] vertex : footprintVertices) {
+                for (int i = 0; i < vertex.length; i++) {
+                    insert.setInt(i + 1, vertex[i]);
+                }
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+
+            // Built once over the sorted rows rather than grown row by row
+            statement.execute("CREATE INDEX " + GRAMS_TABLE + "_idx ON " + GRAMS_TABLE
+                    + " (" + WordMatchQueries.GRAM + ", " + WordMatchQueries.GRAM_LOC_ID + ")");
+            db.commit();
+            db.setAutoCommit(true);
+
+            // Statistics for the query planner, then pack the pages
+            statement.execute("ANALYZE");
+            // The SQLite on older devices only reads sqlite_stat1
+            statement.execute("DROP TABLE IF EXISTS sqlite_stat4");
+            statement.execute("PRAGMA user_version = " + version);
+            statement.execute("VACUUM");
+
+            ResultSet check = statement.executeQuery("PRAGMA integrity_check");
+            check.next();
+            if (!"ok".equals(check.getString(1))) {
+                throw new SQLException("Integrity check failed: " + check.getString(1));
+            }
+            check.close();
+            statement.close();
+        } finally {
+            db.close();
+        }
+
+        if (out.exists() && !out.delete()) {
+            throw new IOException("Unable to replace " + out);
+        }
+        if (!tmp.renameTo(out)) {
+            throw new IOException("Unable to rename " + tmp + " to " + out);
+        }
+        return gramCount;
+    }
+
+    /**
+     * A CSV file with a header row, read whole. Fields may be quoted, with "" for a quote and line
+     * breaks inside quotes.
+     */
+    private static class CsvFile {
+        private final File file;
+        private final Map<String, Integer> columns = new HashMap<String, Integer>();
+        private final List<String[]> rows = new ArrayList<String[]>();
+        // The line each row starts on
+        private final List<Integer> lines = new ArrayList<Integer>();
+
+        CsvFile(File file, String... requiredColumns) throws IOException {
+            this.file = file;
+            Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            try {
+                List<String> record = new ArrayList<String>();
+                StringBuilder field = new StringBuilder();
+                boolean quoted = false;
+                int line = 1;
+                int recordLine = 1;
+                int c;
+                while ((c = in.read()) != -1) {
+                    if (quoted) {
+                        if (c == '"') {
+                            in.mark(1);
+                            if (in.read() == '"') {
+                                field.append('"');
+                            } else {
+                                quoted = false;
+                                in.reset();
+                            }
+                        } else {
+                            if (c == '\n') {
+                                line++;
+                            }
+                            field.append((char) c);
+                        }
+                    } else if (c == '"') {
+                        quoted = true;
+                    } else if (c == ',') {
+                        record.add(field.toString());
+                        field.setLength(0);
+                    } else if (c == '\n') {
+                        record.add(field.toString());
+                        field.setLength(0);
+                        add(record, recordLine);
+                        record.clear();
+                        recordLine = ++line;
+                    } else if (c != '\r') {
+                        field.append((char) c);
+                    }
+                }
+                if (field.length() > 0 || !record.isEmpty()) {
+                    record.add(field.toString());
+                    add(record, recordLine);
+                }
+            } finally {
+                in.close();
+            }
+
+            if (rows.isEmpty()) {
+                throw new IOException(file + " has no header");
+            }
+            String[] header = rows.remove(0);
+            lines.remove(0);
+            for (int i = 0; i < header.length; i++) {
+                columns.put(header[i].trim(), i);
+            }
+            for (String column : requiredColumns) {
+                if (!columns.containsKey(column)) {
+                    throw new IOException(file + " has no column " + column + ", found " + Arrays.toString(header));
+                }
+            }
+        }
+
+        private void add(List<String> record, int line) {
+            // Skip blank lines
+            if (record.size() > 1 || !record.get(0).trim().isEmpty()) {
+                rows.add(record.toArray(new String[record.size()]));
+                lines.add(line);
+            }
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        /**
+         * @return The field, empty if the row is short of it
+         */
+        String get(int row, String column) {
+            String[] fields = rows.get(row);
+            int index = columns.get(column);
+            return index < fields.length ? fields[index] : "";
+        }
+
+        String getPosition(int row) {
+            return file.getName() + ":" + lines.get(row);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.jamesma.purdue.maps.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the endpoint publishing location changesets, see DeltaUpdater in the app.
+ *
+ * Changesets are kept as files named by the data version they apply to: {@code 3.json} takes the
+ * data from version 3 to whatever its "version" says. A request for /changes?since=3 is answered
+ * with that file signed by the private key, or 204 No Content if there is no such file. The files
+ * hold the changeset payload described by Changeset in the app.
+ *
+ * <pre>
+ * java com.jamesma.purdue.maps.tools.DeltaServer --generate-key delta_key.pk8
+ * java com.jamesma.purdue.maps.tools.DeltaServer --key delta_key.pk8 --changes changes [--port 8080]
+ * </pre>
+ *
+ * The first prints the public key for the delta_update_public_key string of the app. Keep the
+ * private key out of the repository.
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class DeltaServer implements HttpHandler {
+
+    private static final String DEFAULT_PORT = "8080";
+    private static final int KEY_BITS = 2048;
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String SINCE_PARAMETER = "since=";
+
+    private final PrivateKey key;
+    private final File changesDir;
+
+    private DeltaServer(PrivateKey key, File changesDir) {
+        this.key = key;
+        this.changesDir = changesDir;
+    }
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        Map<String, String> options = parseOptions(args);
+        String generateKey = options.get("--generate-key");
+        if (generateKey != null) {
+            generateKey(new File(generateKey));
+            return;
+        }
+
+        String keyFile = options.get("--key");
+        String changes = options.get("--changes");
+        if (keyFile == null || changes == null) {
+            System.err.println("Usage: DeltaServer --generate-key FILE");
+            System.err.println("       DeltaServer --key FILE --changes DIR [--port PORT]");
+            System.exit(2);
+        }
+
+        PrivateKey key = KeyFactory.getInstance("RSA").generatePrivate(
+                new PKCS8EncodedKeySpec(Files.readAllBytes(new File(keyFile).toPath())));
+        int port = Integer.parseInt(value(options, "--port", DEFAULT_PORT));
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/changes", new DeltaServer(key, new File(changes)));
+        server.start();
+        System.out.printf("Serving changesets from %s at http://localhost:%d/changes?since=N%n", changes, port);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String value(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Write a new private key in PKCS#8 and print its public key in X.509, both base64 and DER as the app expects.
+     */
+    private static void generateKey(File out) throws IOException, GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_BITS);
+        KeyPair pair = generator.generateKeyPair();
+        Files.write(out.toPath(), pair.getPrivate().getEncoded());
+        System.out.println("Wrote the private key to " + out + ", the public key for delta_update_public_key is:");
+        System.out.println(Base64.getEncoder().encodeToString(pair.getPublic().getEncoded()));
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String query = exchange.getRequestURI().getQuery();
+            int since;
+            try {
+                since = Integer.parseInt(query.substring(query.indexOf(SINCE_PARAMETER) + SINCE_PARAMETER.length()));
+            } catch (RuntimeException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            File changeset = new File(changesDir, since + ".json");
+            if (!changeset.isFile()) {
+                System.out.printf("since=%d: nothing newer%n", since);
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+
+            String payload = new String(Files.readAllBytes(changeset.toPath()), StandardCharsets.UTF_8);
+            byte[] body = ("{\"payload\":" + quote(payload) + ",\"signature\":\"" + sign(payload) + "\"}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+            System.out.printf("since=%d: sent %s (%d bytes)%n", since, changeset.getName(), body.length);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String sign(String payload) throws GeneralSecurityException {
+        Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signer.initSign(key);
+        signer.update(payload.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(signer.sign());
+    }
+
+    /**
+     * @return The text as a JSON string literal
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 16).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.jamesma.purdue.maps.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jamesma.purdue.maps.geo.GeoMath;
+import com.jamesma.purdue.maps.tiles.TilePack;
+
+/**
+ * Builds a {@link TilePack} of the map tiles covering a bounding box over a range of zoom levels.
+ *
+ * Tiles are read from a local directory laid out as {z}/{x}/{y}.png, or fetched from a tile
+ * server by filling in a Uri template such as http://localhost:8080/{z}/{x}/{y}.png. Tiles
+ * missing from the source are left out of the pack. Identical tile images, such as empty
+ * fields, are stored once and shared by their index entries.
+ *
+ * <pre>
+ * java com.jamesma.purdue.maps.tools.TilePackBuilder --out campus_tiles.pack
+ *     (--dir tiles | --url http://localhost:8080/{z}/{x}/{y}.png)
+ *     [--zoom 14-18] [--bbox 40.405,-86.950,40.475,-86.900]
+ * </pre>
+ *
+ * @author James Ma (http://jamesma.info)
+ *
+ */
+public class TilePackBuilder {
+
+    // Campus and the surrounding West Lafayette blocks, a margin around every location
+    private static final String DEFAULT_BBOX = "40.405,-86.950,40.475,-86.900";
+    private static final String DEFAULT_ZOOM = "14-18";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final File sourceDir;
+    private final String sourceUrl;
+
+    private int missingCount = 0;
+
+    private TilePackBuilder(File sourceDir, String sourceUrl) {
+        this.sourceDir = sourceDir;
+        this.sourceUrl = sourceUrl;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        String out = options.get("--out");
+        if (out == null || (options.containsKey("--dir") == options.containsKey("--url"))) {
+            System.err.println("Usage: TilePackBuilder --out FILE (--dir DIR | --url TEMPLATE) [--zoom MIN-MAX] [--bbox MINLAT,MINLNG,MAXLAT,MAXLNG]");
+            System.exit(2);
+        }
+
+        String[] zoom = value(options, "--zoom", DEFAULT_ZOOM).split("-");
+        String[] bbox = value(options, "--bbox", DEFAULT_BBOX).split(",");
+        if (zoom.length != 2 || bbox.length != 4) {
+            System.err.println("Malformed --zoom or --bbox");
+            System.exit(2);
+        }
+
+        String dir = options.get("--dir");
+        TilePackBuilder builder = new TilePackBuilder(dir == null ? null : new File(dir), options.get("--url"));
+        long start = System.nanoTime();
+        int written = builder.build(new File(out),
+                Integer.parseInt(zoom[0]), Integer.parseInt(zoom[1]),
+                toE6(bbox[0]), toE6(bbox[1]), toE6(bbox[2]), toE6(bbox[3]));
+
+        System.out.printf("Wrote %d tiles to %s (%d bytes) in %.1f s, %d missing from the source%n",
+                written, out, new File(out).length(), (System.nanoTime() - start) / 1e9, builder.missingCount);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String value(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static int toE6(String degrees) {
+        return (int) Math.round(Double.parseDouble(degrees.trim()) * 1e6);
+    }
+
+    /**
+     * Collects the tiles and writes the pack.
+     *
+     * @return The number of tiles written
+     */
+    private int build(File out, int minZoom, int maxZoom, int minLatE6, int minLngE6, int maxLatE6, int maxLngE6)
+            throws IOException {
+        List<long[]> entries = new ArrayList<long[]>();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Map<String, long[]> written = new HashMap<String, long[]>();
+
+        // Tiles are visited in key order, so the index comes out sorted
+        for (int z = minZoom; z <= maxZoom; z++) {
+            int tiles = 1 << z;
+            int minX = toTile(GeoMath.mercatorX(minLngE6), tiles);
+            int maxX = toTile(GeoMath.mercatorX(maxLngE6), tiles);
+            // Mercator y grows southwards
+            int minY = toTile(GeoMath.mercatorY(maxLatE6), tiles);
+            int maxY = toTile(GeoMath.mercatorY(minLatE6), tiles);
+
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    byte[] tile = readTile(z, x, y);
+                    if (tile == null) {
+                        missingCount++;
+                        continue;
+                    }
+
+                    String digest = sha1(tile);
+                    long[] location = written.get(digest);
+                    if (location == null) {
+                        location = new long[] { data.size(), tile.length };
+                        data.write(tile);
+                        written.put(digest, location);
+                    }
+                    entries.add(new long[] { TilePack.getKey(z, x, y), location[0], location[1] });
+                }
+            }
+            System.out.printf("Zoom %d: %d tiles so far%n", z, entries.size());
+        }
+
+        long dataStart = TilePack.HEADER_SIZE + (long) entries.size() * TilePack.INDEX_ENTRY_SIZE;
+        File tmp = new File(out.getPath() + ".tmp");
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            os.writeInt(TilePack.MAGIC);
+            os.writeInt(TilePack.VERSION);
+            os.writeInt(entries.size());
+            for (long[] entry : entries) {
+                os.writeLong(entry[0]);
+                os.writeLong(dataStart + entry[1]);
+                os.writeInt((int) entry[2]);
+            }
+            data.writeTo(os);
+        } finally {
+            os.close();
+        }
+
+        if (out.exists() && !out.delete()) {
+            throw new IOException("Unable to replace " + out);
+        }
+        if (!tmp.renameTo(out)) {
+            throw new IOException("Unable to rename " + tmp + " to " + out);
+        }
+        return entries.size();
+    }
+
+    private static int toTile(double mercator, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) (mercator * tiles)));
+    }
+
+    /**
+     * @return The tile image from the source, or null if the source doesn't have it
+     */
+    private byte[] readTile(int z, int x, int y) throws IOException {
+        if (sourceDir != null) {
+            File file = new File(sourceDir, z + File.separator + x + File.separator + y + ".png");
+            return file.exists() ? Files.readAllBytes(file.toPath()) : null;
+        }
+
+        URL url = new URL(sourceUrl
+                .replace("{z}", Integer.toString(z))
+                .replace("{x}", Integer.toString(x))
+                .replace("{y}", Integer.toString(y)));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("User-Agent", "PurdueMaps-TilePackBuilder");
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " for " + url);
+            }
+            return readFully(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
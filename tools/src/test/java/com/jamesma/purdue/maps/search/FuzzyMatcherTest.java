@@ -0,0 +1,60 @@
+package com.jamesma.purdue.maps.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class FuzzyMatcherTest {
+
+    private static final List<CampusLocation> LOCATIONS = Arrays.asList(
+            location(1, "Neil Armstrong Hall of Engineering", "ARMS"),
+            location(2, "Lawson Computer Science Building", "LWSN"),
+            location(3, "Hovde Hall of Administration", "HOVD"),
+            location(4, "Intercollegiate Athletic Facility", "IAF"));
+
+    private static CampusLocation location(int id, String name, String abbr) {
+        return new CampusLocation(id, name, abbr, 40425000, -86915000, null, abbr);
+    }
+
+    private static List<Integer> search(String query) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (CampusLocation match : new FuzzyMatcher(LOCATIONS).search(query, 10)) {
+            ids.add(match.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void misspelledWord() {
+        assertEquals(Arrays.asList(1), search("armstong"));
+    }
+
+    @Test
+    public void misspelledWordsEndingInOneLetter() {
+        assertEquals(Arrays.asList(1), search("armstong h"));
+        assertEquals(Arrays.asList(2), search("lawson comptuer b"));
+    }
+
+    @Test
+    public void oneLetterOnlyMatchesTheStartOfAWord() {
+        assertTrue(search("armstong x").isEmpty());
+    }
+
+    @Test
+    public void namesLowercasedTheSameInAnyLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(Arrays.asList(4), search("intrcolegiate"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+}
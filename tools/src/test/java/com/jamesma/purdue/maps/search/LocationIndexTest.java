@@ -0,0 +1,56 @@
+package com.jamesma.purdue.maps.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LocationIndexTest {
+
+    private static final List<CampusLocation> LOCATIONS = Arrays.asList(
+            location(1, "Neil Armstrong Hall of Engineering", "ARMS"),
+            location(2, "Lawson Computer Science Building", "LWSN"),
+            location(3, "Hovde Hall of Administration", "HOVD"),
+            location(4, "Hall for Discovery and Learning Research", "DLR"),
+            location(5, "Haas Hall", "HAAS"),
+            location(6, "Wood Residence Hall", null));
+
+    private static final LocationIndex INDEX = new LocationIndex(LOCATIONS);
+
+    private static CampusLocation location(int id, String name, String abbr) {
+        return new CampusLocation(id, name, abbr, 40425000, -86915000, null, abbr);
+    }
+
+    private static Set<Integer> search(String query) {
+        Set<Integer> ids = new TreeSet<Integer>();
+        for (CampusLocation match : INDEX.search(query, LOCATIONS.size())) {
+            ids.add(match.getId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> scan(String query) {
+        Set<Integer> ids = new TreeSet<Integer>();
+        for (CampusLocation location : LOCATIONS) {
+            String abbr = location.getAbbreviation();
+            if (location.getName().toLowerCase(Locale.US).contains(query)
+                    || (abbr != null && abbr.toLowerCase(Locale.US).contains(query))) {
+                ids.add(location.getId());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void findsEveryLocationContainingTheQuery() {
+        for (String query : new String[] { "a", "h", "ha", "hall", "hall ", "hall of", "s", "ng", "lwsn", "zz", "residence hall" }) {
+            assertEquals(query, scan(query), search(query));
+        }
+    }
+
+}